@@ -0,0 +1,86 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+/**
+ * Text view limiting the number of character reads.
+ * Regular expression matcher reads a character for every step it takes, so the read count
+ * bounds the work of a pattern search no matter how much it backtracks.
+ */
+final class BoundedText implements CharSequence {
+
+    private final CharSequence text;
+    private long steps;
+    private int lastPosition;
+
+    BoundedText(CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * Set number of reads allowed from now on.
+     */
+    void setBudget(long steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * @return position of the last character read
+     */
+    int getLastPosition() {
+        return lastPosition;
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--steps < 0) {
+            throw new ExhaustedException();
+        }
+        lastPosition = index;
+        return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    /**
+     * Thrown from a read exceeding the budget.
+     */
+    static final class ExhaustedException extends RuntimeException {
+
+        ExhaustedException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -23,6 +23,7 @@ package com.pilulerouge.omegat.latex;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -54,6 +55,8 @@ public class Command {
     private final CommandArgument[] args;
     private final CommandArgument[] options;
     private final boolean hasPlainArgument;
+    private final int[] argumentTransitions; // Level transitions for compiled parser
+    private final int[] optionTransitions;
 
     public Command(CommandType type, String name, String tag, CommandArgument[] args, CommandArgument[] options) {
         this.name = name;
@@ -66,6 +69,8 @@ public class Command {
                 Arrays.stream(args).anyMatch(CommandArgument::isExternal)) ||
                 EXPLICIT_NUMBERED_TAG_COMMANDS.contains(name) ||
                 (tag != null && tag.matches("[A-Za-z]+"));
+        this.argumentTransitions = CompiledParser.compileArguments(type, args);
+        this.optionTransitions = CompiledParser.compileOptions(type, options);
      }
 
     public CommandType getType() {
@@ -92,6 +97,14 @@ public class Command {
         return options;
     }
 
+    int[] getArgumentTransitions() {
+        return argumentTransitions;
+    }
+
+    int[] getOptionTransitions() {
+        return optionTransitions;
+    }
+
     public boolean isUnknown() {
         return name.equals(UNKNOWN_COMMAND_NAME);
     }
@@ -104,4 +117,25 @@ public class Command {
     public boolean hasPlainArgument() {
         return hasPlainArgument;
     }
+
+    /**
+     * Commands are equal when they are defined the same way in config.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Command)) {
+            return false;
+        }
+        Command other = (Command) o;
+        return type == other.type && name.equals(other.name) && Objects.equals(tag, other.tag) &&
+                Arrays.equals(args, other.args) && Arrays.equals(options, other.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, name, tag, Arrays.hashCode(args), Arrays.hashCode(options));
+    }
 }
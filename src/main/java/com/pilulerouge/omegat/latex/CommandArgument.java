@@ -44,4 +44,21 @@ public class CommandArgument {
     public boolean doEscape() {
         return escape;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CommandArgument)) {
+            return false;
+        }
+        CommandArgument other = (CommandArgument) o;
+        return translatable == other.translatable && external == other.external && escape == other.escape;
+    }
+
+    @Override
+    public int hashCode() {
+        return (translatable ? 4 : 0) | (external ? 2 : 0) | (escape ? 1 : 0);
+    }
 }
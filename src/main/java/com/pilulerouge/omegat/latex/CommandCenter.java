@@ -21,20 +21,12 @@
 
 package com.pilulerouge.omegat.latex;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -45,131 +37,109 @@ import static org.omegat.util.StaticUtils.getConfigDir;
 
 /**
  * Manage specifics of LaTeX commands and environments.
+ * Configuration is loaded once and shared as an immutable snapshot, every instance keeps
+ * the snapshot it was created with.
  */
 public class CommandCenter {
 
     private final static String resourceConfigFileName = "config.json";
 
-    private final static Map<String, Command> commandsByName = new HashMap<>();
-    private final static Set<String> optionConsumers = new HashSet<>();
-    private final static Set<String> argumentConsumers = new HashSet<>();
-    private final static Set<String> tableEnvironments = new HashSet<>();
+    private final static SymbolTable NO_SYMBOLS = new SymbolTable();
 
-    private final Map<String, Integer> tagCounters;
-    private final Map<String, String> firstOrClosedTags; // Source string to tag
-    private final Map<Integer, String> lastTags; // Tag ID to tag
-    private final Map<String, String> firstToLastTags; // First to last tag for a pair
+    private static volatile CommandConfig sharedConfig; // Null until loaded
 
-    private static boolean configIsLoaded = false;
+    private final CommandConfig config;
 
     public CommandCenter(final boolean useInternalConfig) throws IOException {
-        tagCounters = new HashMap<>();
-        firstOrClosedTags = new HashMap<>();
-        lastTags = new HashMap<>();
-        firstToLastTags = new HashMap<>();
-        if (useInternalConfig) {
-            loadInternalConfig();
-        } else {
-            loadAndCopyConfig();
-        }
+        config = getSharedConfig(useInternalConfig);
     }
 
-    void reset() {
-        tagCounters.clear();
-        firstOrClosedTags.clear();
-        lastTags.clear();
-        firstToLastTags.clear();
+    Command getCommand(String name) {
+        return config.getCommand(name);
     }
 
-    Command getCommand(String name) {
-        if (name == null) {
-            return null;
-        }
-        if (commandsByName.containsKey(name)) {
-            return commandsByName.get(name);
+    /**
+     * Get command of token name resolving it by symbol ID when possible.
+     * @param tokens token buffer
+     * @param index token index
+     * @return command or null if token has no name
+     */
+    Command getCommand(TokenBuffer tokens, int index) {
+        Command command = tokens.getCommand(index);
+        if (command != null) {
+            return command;
         }
-        return commandsByName.get(Command.UNKNOWN_COMMAND_NAME);
+        return config.getCommand(tokens.getName(index));
     }
 
     /**
-     * Get virtual command for LaTeX group.
-     * @return group command
+     * Symbol table of this instance config to be extended by token buffers.
+     * @return symbol table
      */
-    Command getGroupCommand() {
-        return getCommand(Command.GROUP_COMMAND_NAME);
+    SymbolTable getConfigSymbols() {
+        return config.getSymbols();
     }
 
     /**
-     * Get last tag created earlier with a first tag of this pair.
-     * @param tagId tag id from parser mark
-     * @return tag string
+     * Symbol table of shared config command names. It's replaced, not changed, when config is reloaded.
+     * @return symbol table, empty if config is not loaded yet
      */
-    String getLastTag(int tagId) {
-        return lastTags.get(tagId);
+    static SymbolTable getSymbols() {
+        CommandConfig current = sharedConfig;
+        return current == null ? NO_SYMBOLS : current.getSymbols();
     }
 
     /**
-     * Get closed or first tag and store last tag for later request.
-     * @param content source string
-     * @param command command
-     * @param tagId tag id from parser mark
-     * @return tag string
+     * Get virtual command for LaTeX group.
+     * @return group command
      */
-    String getFirstOrClosedTag(String content, Command command, int tagId, boolean closed) {
-        String firstOrClosedTag, lastTag;
+    Command getGroupCommand() {
+        return config.getCommand(Command.GROUP_COMMAND_NAME);
+    }
 
-        if (firstOrClosedTags.containsKey(content)) {
-            firstOrClosedTag = firstOrClosedTags.get(content);
-            if (!closed) {
-                lastTag = firstToLastTags.get(firstOrClosedTag);
-                lastTags.put(tagId, lastTag);
-            }
-        } else {
-            String tagName = command.getTag();
-            if (command.hasNumberedTags()) {
-                int tagNumber;
-                if (tagCounters.containsKey(tagName)) {
-                    tagNumber = tagCounters.get(tagName) + 1;
-                } else {
-                    tagNumber = 1;
+    boolean isOptionConsumer(String envName) {
+        return config.isOptionConsumer(envName);
+    }
+
+    boolean isArgumentConsumer(String envName) {
+        return config.isArgumentConsumer(envName);
+    }
+
+    boolean isTableEnvironment(String envName) {
+        return config.isTableEnvironment(envName);
+    }
+
+    /**
+     * Get shared config loading it on first call.
+     * @param useInternalConfig ignore user config file
+     * @return config snapshot
+     * @throws IOException when internal config can't be read
+     */
+    private static CommandConfig getSharedConfig(boolean useInternalConfig) throws IOException {
+        CommandConfig current = sharedConfig;
+        if (current == null) {
+            synchronized (CommandCenter.class) {
+                current = sharedConfig;
+                if (current == null) {
+                    current = useInternalConfig ? loadInternalConfig() : loadAndCopyConfig();
+                    sharedConfig = current;
                 }
-                tagCounters.put(tagName, tagNumber);
-                tagName += String.valueOf(tagNumber);
             }
-            if (closed) {
-                firstOrClosedTag = "<" + tagName + "/>";
-            } else {
-                firstOrClosedTag = "<" + tagName + ">";
-                lastTag = "</" + tagName + ">";
-                firstToLastTags.put(firstOrClosedTag, lastTag);
-                lastTags.put(tagId, lastTag);
-            }
-            firstOrClosedTags.put(content, firstOrClosedTag);
         }
-        return firstOrClosedTag;
-    }
-
-    private static void resetConfig() {
-        commandsByName.clear();
-        optionConsumers.clear();
-        argumentConsumers.clear();
-        tableEnvironments.clear();
+        return current;
     }
 
-    static void loadInternalConfig() throws IOException {
-        if (configIsLoaded) return;
+    private static CommandConfig loadInternalConfig() throws IOException {
         URL internalConfigUrl = CommandCenter.class.getClassLoader().getResource(resourceConfigFileName);
-        loadConfig(internalConfigUrl);
+        CommandConfig config = CommandConfig.load(internalConfigUrl);
         String pluginClassName = SimpleLatexFilter.class.getSimpleName();
         logLocalRB("LOG_INTERNAL_CONFIG_LOADED", pluginClassName);
+        return config;
     }
 
-    private static void loadAndCopyConfig() throws IOException {
-        if (configIsLoaded) return;
-
+    private static CommandConfig loadAndCopyConfig() throws IOException {
         String pluginClassName = SimpleLatexFilter.class.getSimpleName();
         Path userConfigPath = Paths.get(getConfigDir(), pluginClassName + ".json");
-        URL userConfigUrl = userConfigPath.toUri().toURL();
 
         Map<String, String> options = getFilterOptions();
         boolean settingLoadUserConfig = false;
@@ -181,16 +151,33 @@ public class CommandCenter {
             if (!Files.exists(userConfigPath)) {
                 copyConfig();
             }
+            ConfigWatcher.start(userConfigPath);
             try {
-                loadConfig(userConfigUrl);
+                CommandConfig config = ConfigCache.load(userConfigPath);
                 logLocalRB("LOG_USER_CONFIG_LOADED", pluginClassName,  userConfigPath);
+                return config;
             } catch (Exception e) {
                 logLocalRB("LOG_USER_CONFIG_LOAD_FAILED", pluginClassName);
-                resetConfig();
-                loadInternalConfig();
+                return loadInternalConfig();
             }
         } else {
-            loadInternalConfig();
+            return loadInternalConfig();
+        }
+    }
+
+    /**
+     * Load user config file again and share it instead of the current config.
+     * Instances created earlier keep their config, so documents being processed are finished with it.
+     * @param userConfigPath user config file
+     * @return names of commands and environments defined differently than before
+     * @throws IOException when config can't be read, current config stays shared then
+     */
+    static Set<String> reloadUserConfig(Path userConfigPath) throws IOException {
+        CommandConfig config = ConfigCache.load(userConfigPath);
+        synchronized (CommandCenter.class) {
+            Set<String> changedNames = config.findChangedNames(sharedConfig);
+            sharedConfig = config;
+            return changedNames;
         }
     }
 
@@ -208,139 +195,4 @@ public class CommandCenter {
             }
         }
     }
-
-    private static void loadConfig(URL configFileUrl) throws IOException {
-        if (configIsLoaded) return;
-
-        JsonNode root;
-        ObjectMapper mapper = new ObjectMapper();
-        root = mapper.readTree(configFileUrl);
-
-        JsonNode envNode = root.get("environments");
-        for (JsonNode node: envNode.get("consumeOptions")) {
-            optionConsumers.add(node.asText());
-        }
-        for (JsonNode node: envNode.get("consumeArguments")) {
-            argumentConsumers.add(node.asText());
-        }
-        for (JsonNode node: envNode.get("table")) {
-            tableEnvironments.add(node.asText());
-        }
-
-        for (JsonNode tcNode : root.get("allCommands")) {
-            CommandType commandType = CommandType.valueOf(tcNode.get("type").asText());
-            for (JsonNode commandNode : tcNode.get("commands")) {
-                List<CommandArgument> args = new ArrayList<>();
-                List<CommandArgument> options = new ArrayList<>();
-                String commandName, tagName;
-                if (commandNode.isTextual()) {
-                    commandName = commandNode.asText();
-                    tagName = null;
-                    if (commandType == CommandType.CONTENT) {
-                        args.add(new CommandArgument(true, false, true));
-                    }
-                } else {
-                    commandName = commandNode.get("name").asText();
-                    tagName = getJSONStringValue(commandNode, "tag");
-
-                    JsonNode argsNode = commandNode.get("args");
-                    if (argsNode == null && commandType != CommandType.CONTROL) {
-                        args.add(new CommandArgument(true, false, true));
-                    } else if (argsNode != null) {
-                        for (JsonNode argNode : argsNode) {
-                            boolean translatable = argNode.get("translate").asBoolean();
-                            boolean external = getJSONBooleanValue(argNode, "external", false);
-                            boolean escape = getJSONBooleanValue(argNode, "escape", true);
-                            args.add(new CommandArgument(translatable, external, escape));
-                        }
-                    }
-
-                    JsonNode optionsNode = commandNode.get("options");
-                    if (optionsNode != null) {
-                        for (JsonNode optNode: optionsNode) {
-                            boolean translatable = getJSONBooleanValue(optNode, "translate", true);
-                            boolean external = getJSONBooleanValue(optNode, "external", false);
-                            boolean escape = getJSONBooleanValue(optNode, "escape", true);
-                            options.add(new CommandArgument(translatable, external, escape));
-                        }
-                    }
-                }
-
-                addCommand(commandName, commandType, tagName, args, options);
-            }
-        }
-        // Add virtual group command
-        addCommand(
-                Command.GROUP_COMMAND_NAME,
-                CommandType.FORMAT,
-                Command.GROUP_COMMAND_TAG,
-                Collections.singletonList(new CommandArgument(true, false, true)),
-                Collections.emptyList()
-        );
-
-        // Add unknown command
-        addCommand(
-                Command.UNKNOWN_COMMAND_NAME,
-                CommandType.FORMAT,
-                Command.UNKNOWN_COMMAND_TAG,
-                Collections.singletonList(new CommandArgument(true, false, true)),
-                Collections.emptyList()
-        );
-
-        // Add mask command
-        addCommand(
-                Command.MASK_COMMAND_NAME,
-                CommandType.FORMAT,
-                Command.MASK_COMMAND_TAG,
-                Collections.emptyList(),
-                Collections.emptyList()
-        );
-
-        // Add inline math command
-        addCommand(
-                Command.INLINE_MATH_COMMAND_NAME,
-                CommandType.FORMAT,
-                Command.INLINE_MATH_COMMAND_TAG,
-                Collections.emptyList(),
-                Collections.emptyList()
-        );
-        configIsLoaded = true;
-    }
-
-    private static void addCommand(String commandName, CommandType commandType, String tagName,
-                                   List<CommandArgument> args, List<CommandArgument> options) {
-        commandsByName.put(
-                commandName,
-                new Command(commandType, commandName, tagName, args.toArray(new CommandArgument[0]),
-                        options.toArray(new CommandArgument[0]))
-        );
-
-    }
-
-    private static boolean getJSONBooleanValue(JsonNode node, String field, boolean defaultValue) {
-        if (node.has(field)) {
-            return node.get(field).asBoolean();
-        } else {
-            return defaultValue;
-        }
-    }
-
-    private static String getJSONStringValue(JsonNode node, String field) {
-        if (node.has(field)) {
-            return node.get(field).asText();
-        }
-        return null;
-    }
-
-    boolean isOptionConsumer(String envName) {
-        return optionConsumers.contains(envName);
-    }
-
-    boolean isArgumentConsumer(String envName) {
-        return argumentConsumers.contains(envName);
-    }
-
-    boolean isTableEnvironment(String envName) {
-        return tableEnvironments.contains(envName);
-    }
 }
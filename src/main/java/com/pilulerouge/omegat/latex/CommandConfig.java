@@ -0,0 +1,533 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Commands and environments of one loaded configuration file.
+ * A snapshot never changes after loading, so it can be shared by filters working in different threads.
+ * Reloading configuration creates a new snapshot.
+ */
+final class CommandConfig {
+
+    // Environment flags of config symbols
+    final static int CONSUME_OPTIONS = 1;
+    final static int CONSUME_ARGUMENTS = 2;
+    final static int TABLE = 4;
+
+    // Commands every config gets in addition to its own ones
+    private final static List<Command> VIRTUAL_COMMANDS = Arrays.asList(
+            createCommand(Command.GROUP_COMMAND_NAME, CommandType.FORMAT, Command.GROUP_COMMAND_TAG,
+                    Collections.singletonList(new CommandArgument(true, false, true)), Collections.emptyList()),
+            createCommand(Command.UNKNOWN_COMMAND_NAME, CommandType.FORMAT, Command.UNKNOWN_COMMAND_TAG,
+                    Collections.singletonList(new CommandArgument(true, false, true)), Collections.emptyList()),
+            // Masks untranslatable tokens inside external content
+            createCommand(Command.MASK_COMMAND_NAME, CommandType.FORMAT, Command.MASK_COMMAND_TAG,
+                    Collections.emptyList(), Collections.emptyList()),
+            createCommand(Command.INLINE_MATH_COMMAND_NAME, CommandType.FORMAT, Command.INLINE_MATH_COMMAND_TAG,
+                    Collections.emptyList(), Collections.emptyList())
+    );
+
+    // Argument flags of binary snapshot
+    private final static int ARGUMENT_TRANSLATE = 1;
+    private final static int ARGUMENT_EXTERNAL = 2;
+    private final static int ARGUMENT_ESCAPE = 4;
+
+    private final static JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Map<String, Command> commandsByName;
+    private final SymbolTable symbols; // Command names for token buffers
+    private final Set<String> optionConsumers;
+    private final Set<String> argumentConsumers;
+    private final Set<String> tableEnvironments;
+
+    private CommandConfig(Map<String, Command> commandsByName, SymbolTable symbols, Set<String> optionConsumers,
+                          Set<String> argumentConsumers, Set<String> tableEnvironments) {
+        this.commandsByName = Collections.unmodifiableMap(commandsByName);
+        this.symbols = symbols;
+        this.optionConsumers = Collections.unmodifiableSet(optionConsumers);
+        this.argumentConsumers = Collections.unmodifiableSet(argumentConsumers);
+        this.tableEnvironments = Collections.unmodifiableSet(tableEnvironments);
+    }
+
+    /**
+     * Get command by name.
+     * @param name command name
+     * @return command, unknown command for unknown name or null for null name
+     */
+    Command getCommand(String name) {
+        if (name == null) {
+            return null;
+        }
+        Command command = commandsByName.get(name);
+        if (command != null) {
+            return command;
+        }
+        return commandsByName.get(Command.UNKNOWN_COMMAND_NAME);
+    }
+
+    /**
+     * Symbol table of config command names. Token buffers extend it and must not change it.
+     * @return symbol table
+     */
+    SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    boolean isOptionConsumer(String envName) {
+        return optionConsumers.contains(envName);
+    }
+
+    boolean isArgumentConsumer(String envName) {
+        return argumentConsumers.contains(envName);
+    }
+
+    boolean isTableEnvironment(String envName) {
+        return tableEnvironments.contains(envName);
+    }
+
+    /**
+     * Find commands and environments defined differently in another snapshot.
+     * @param other snapshot to compare with
+     * @return names of commands and environments added, removed or changed
+     */
+    Set<String> findChangedNames(CommandConfig other) {
+        Set<String> names = new HashSet<>();
+        addChangedNames(commandsByName, other.commandsByName, names);
+        addChangedNames(other.commandsByName, commandsByName, names);
+        addChangedNames(optionConsumers, other.optionConsumers, names);
+        addChangedNames(argumentConsumers, other.argumentConsumers, names);
+        addChangedNames(tableEnvironments, other.tableEnvironments, names);
+        return names;
+    }
+
+    private static void addChangedNames(Map<String, Command> commands, Map<String, Command> otherCommands,
+                                        Set<String> names) {
+        for (Map.Entry<String, Command> e : commands.entrySet()) {
+            if (!e.getValue().equals(otherCommands.get(e.getKey()))) {
+                names.add(e.getKey());
+            }
+        }
+    }
+
+    private static void addChangedNames(Set<String> environments, Set<String> otherEnvironments,
+                                        Set<String> names) {
+        for (String name : environments) {
+            if (!otherEnvironments.contains(name)) {
+                names.add(name);
+            }
+        }
+        for (String name : otherEnvironments) {
+            if (!environments.contains(name)) {
+                names.add(name);
+            }
+        }
+    }
+
+    /**
+     * Load configuration file.
+     * @param configFileUrl file URL
+     * @return configuration snapshot
+     * @throws IOException on read error or invalid configuration
+     */
+    static CommandConfig load(URL configFileUrl) throws IOException {
+        try (InputStream in = configFileUrl.openStream()) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Read JSON configuration. Parsing is streamed, no document tree is built.
+     * @param in JSON input
+     * @return configuration snapshot
+     * @throws IOException on read error or invalid configuration
+     */
+    static CommandConfig read(InputStream in) throws IOException {
+        List<Command> commands = null;
+        List<String> optionConsumers = null;
+        List<String> argumentConsumers = null;
+        List<String> tableEnvironments = null;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+            parser.nextToken();
+            requireToken(parser, JsonToken.START_OBJECT, "configuration");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("allCommands")) {
+                    commands = readCommandGroups(parser);
+                } else if (field.equals("environments")) {
+                    requireToken(parser, JsonToken.START_OBJECT, field);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String envField = parser.getCurrentName();
+                        parser.nextToken();
+                        if (envField.equals("consumeOptions")) {
+                            optionConsumers = readStrings(parser, envField);
+                        } else if (envField.equals("consumeArguments")) {
+                            argumentConsumers = readStrings(parser, envField);
+                        } else if (envField.equals("table")) {
+                            tableEnvironments = readStrings(parser, envField);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            requirePresent(parser, commands, "allCommands");
+            requirePresent(parser, optionConsumers, "consumeOptions");
+            requirePresent(parser, argumentConsumers, "consumeArguments");
+            requirePresent(parser, tableEnvironments, "table");
+        }
+        return create(commands, optionConsumers, argumentConsumers, tableEnvironments);
+    }
+
+    /**
+     * Write compact binary form of this snapshot.
+     * @param out output
+     * @throws IOException on write error
+     */
+    void writeBinary(DataOutput out) throws IOException {
+        writeStrings(out, optionConsumers);
+        writeStrings(out, argumentConsumers);
+        writeStrings(out, tableEnvironments);
+        List<Command> commands = new ArrayList<>();
+        for (Command command : commandsByName.values()) {
+            if (!isVirtual(command.getName())) {
+                commands.add(command);
+            }
+        }
+        out.writeInt(commands.size());
+        for (Command command : commands) {
+            out.writeUTF(command.getType().name());
+            out.writeUTF(command.getName());
+            out.writeBoolean(command.getTag() != null);
+            if (command.getTag() != null) {
+                out.writeUTF(command.getTag());
+            }
+            writeArguments(out, command.getArgs());
+            writeArguments(out, command.getOptions());
+        }
+    }
+
+    /**
+     * Read snapshot written by {@link #writeBinary(DataOutput)}.
+     * @param in input
+     * @return configuration snapshot
+     * @throws IOException on read error
+     */
+    static CommandConfig readBinary(DataInput in) throws IOException {
+        List<String> optionConsumers = readStrings(in);
+        List<String> argumentConsumers = readStrings(in);
+        List<String> tableEnvironments = readStrings(in);
+        int count = readCount(in);
+        List<Command> commands = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CommandType type = CommandType.valueOf(in.readUTF());
+            String name = in.readUTF();
+            String tag = in.readBoolean() ? in.readUTF() : null;
+            List<CommandArgument> args = readArguments(in);
+            List<CommandArgument> options = readArguments(in);
+            commands.add(createCommand(name, type, tag, args, options));
+        }
+        return create(commands, optionConsumers, argumentConsumers, tableEnvironments);
+    }
+
+    /**
+     * Create snapshot adding virtual commands.
+     * @param commands config commands
+     * @param optionConsumers environments consuming options
+     * @param argumentConsumers environments consuming arguments
+     * @param tableEnvironments table environments
+     * @return configuration snapshot
+     */
+    static CommandConfig create(Collection<Command> commands, Collection<String> optionConsumers,
+                                Collection<String> argumentConsumers, Collection<String> tableEnvironments) {
+        SymbolTable symbols = new SymbolTable();
+        for (String name : optionConsumers) {
+            symbols.addFlags(name, CONSUME_OPTIONS);
+        }
+        for (String name : argumentConsumers) {
+            symbols.addFlags(name, CONSUME_ARGUMENTS);
+        }
+        for (String name : tableEnvironments) {
+            symbols.addFlags(name, TABLE);
+        }
+        Map<String, Command> commandsByName = new HashMap<>();
+        List<Command> allCommands = new ArrayList<>(commands);
+        allCommands.addAll(VIRTUAL_COMMANDS);
+        for (Command command : allCommands) {
+            commandsByName.put(command.getName(), command);
+            symbols.add(command.getName(), command);
+        }
+        return new CommandConfig(commandsByName, symbols, new HashSet<>(optionConsumers),
+                new HashSet<>(argumentConsumers), new HashSet<>(tableEnvironments));
+    }
+
+    private static boolean isVirtual(String name) {
+        for (Command command : VIRTUAL_COMMANDS) {
+            if (command.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Command> readCommandGroups(JsonParser parser) throws IOException {
+        requireToken(parser, JsonToken.START_ARRAY, "allCommands");
+        List<Command> commands = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            requireToken(parser, JsonToken.START_OBJECT, "command group");
+            String typeName = null;
+            List<CommandDefinition> definitions = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("type")) {
+                    typeName = readText(parser);
+                } else if (field.equals("commands")) {
+                    definitions = readCommandDefinitions(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            requirePresent(parser, typeName, "type");
+            requirePresent(parser, definitions, "commands");
+            CommandType type;
+            try {
+                type = CommandType.valueOf(typeName);
+            } catch (IllegalArgumentException e) {
+                throw new JsonParseException(parser, "Unknown command type `" + typeName + "`");
+            }
+            // Group type may follow its commands, so they are created here
+            for (CommandDefinition definition : definitions) {
+                commands.add(definition.toCommand(type));
+            }
+        }
+        return commands;
+    }
+
+    private static List<CommandDefinition> readCommandDefinitions(JsonParser parser) throws IOException {
+        requireToken(parser, JsonToken.START_ARRAY, "commands");
+        List<CommandDefinition> definitions = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            CommandDefinition definition = new CommandDefinition();
+            if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                definition.name = parser.getText();
+                definition.textual = true;
+            } else {
+                requireToken(parser, JsonToken.START_OBJECT, "command");
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if (field.equals("name")) {
+                        definition.name = readText(parser);
+                    } else if (field.equals("tag")) {
+                        definition.tag = readText(parser);
+                    } else if (field.equals("args")) {
+                        definition.args = readArguments(parser, field, false);
+                    } else if (field.equals("options")) {
+                        definition.options = readArguments(parser, field, true);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                requirePresent(parser, definition.name, "name");
+            }
+            definitions.add(definition);
+        }
+        return definitions;
+    }
+
+    /**
+     * @param optional read command options which are translatable by default
+     */
+    private static List<CommandArgument> readArguments(JsonParser parser, String field, boolean optional)
+            throws IOException {
+        requireToken(parser, JsonToken.START_ARRAY, field);
+        List<CommandArgument> arguments = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            requireToken(parser, JsonToken.START_OBJECT, field);
+            Boolean translatable = optional ? Boolean.TRUE : null;
+            boolean external = false;
+            boolean escape = true;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String argField = parser.getCurrentName();
+                parser.nextToken();
+                if (argField.equals("translate")) {
+                    translatable = readBoolean(parser);
+                } else if (argField.equals("external")) {
+                    external = readBoolean(parser);
+                } else if (argField.equals("escape")) {
+                    escape = readBoolean(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            requirePresent(parser, translatable, "translate");
+            arguments.add(new CommandArgument(translatable, external, escape));
+        }
+        return arguments;
+    }
+
+    private static List<String> readStrings(JsonParser parser, String field) throws IOException {
+        requireToken(parser, JsonToken.START_ARRAY, field);
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(readText(parser));
+        }
+        return values;
+    }
+
+    /**
+     * Read value as text the way tree model did, objects and arrays give empty string.
+     */
+    private static String readText(JsonParser parser) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return "";
+        }
+        return parser.getText();
+    }
+
+    /**
+     * Read boolean value accepting the same forms as tree model did.
+     */
+    private static boolean readBoolean(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_TRUE:
+                return true;
+            case VALUE_NUMBER_INT:
+                return parser.getLongValue() != 0;
+            case VALUE_STRING:
+                return parser.getText().trim().equals("true");
+            default:
+                parser.skipChildren();
+                return false;
+        }
+    }
+
+    private static void requireToken(JsonParser parser, JsonToken token, String what) throws IOException {
+        if (parser.currentToken() != token) {
+            throw new JsonParseException(parser, "Unexpected " + parser.currentToken() + " in " + what);
+        }
+    }
+
+    private static void requirePresent(JsonParser parser, Object value, String field) throws IOException {
+        if (value == null) {
+            throw new JsonParseException(parser, "Missing `" + field + "` property");
+        }
+    }
+
+    private static void writeStrings(DataOutput out, Collection<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        int count = readCount(in);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            values.add(in.readUTF());
+        }
+        return values;
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative count " + count);
+        }
+        return count;
+    }
+
+    private static void writeArguments(DataOutput out, CommandArgument[] arguments) throws IOException {
+        out.writeShort(arguments.length);
+        for (CommandArgument argument : arguments) {
+            out.writeByte((argument.isTranslatable() ? ARGUMENT_TRANSLATE : 0) |
+                    (argument.isExternal() ? ARGUMENT_EXTERNAL : 0) |
+                    (argument.doEscape() ? ARGUMENT_ESCAPE : 0));
+        }
+    }
+
+    private static List<CommandArgument> readArguments(DataInput in) throws IOException {
+        int count = in.readUnsignedShort();
+        List<CommandArgument> arguments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int flags = in.readByte();
+            arguments.add(new CommandArgument((flags & ARGUMENT_TRANSLATE) != 0, (flags & ARGUMENT_EXTERNAL) != 0,
+                    (flags & ARGUMENT_ESCAPE) != 0));
+        }
+        return arguments;
+    }
+
+    private static Command createCommand(String commandName, CommandType commandType, String tagName,
+                                         List<CommandArgument> args, List<CommandArgument> options) {
+        return new Command(commandType, commandName, tagName, args.toArray(new CommandArgument[0]),
+                options.toArray(new CommandArgument[0]));
+    }
+
+    /**
+     * Command as read from JSON before the type of its group is known.
+     */
+    private static final class CommandDefinition {
+        String name;
+        String tag;
+        boolean textual; // Defined by name only
+        List<CommandArgument> args;
+        List<CommandArgument> options;
+
+        Command toCommand(CommandType type) {
+            List<CommandArgument> commandArgs = args;
+            if (commandArgs == null) {
+                commandArgs = new ArrayList<>();
+                if (textual ? type == CommandType.CONTENT : type != CommandType.CONTROL) {
+                    commandArgs.add(new CommandArgument(true, false, true));
+                }
+            }
+            return createCommand(name, type, tag, commandArgs,
+                    options == null ? Collections.<CommandArgument>emptyList() : options);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.Arrays;
+
+import static com.pilulerouge.omegat.latex.Command.*;
+
+/**
+ * Parser producing the same marks as {@link Parser} with level transitions precomputed.
+ * Every command keeps transitions for its arguments and options as bit masks built when config is loaded,
+ * environment flags come with token symbols. Level state is kept in parallel arrays indexed by depth,
+ * so processing a token is a few table lookups and a stack operation.
+ */
+public class CompiledParser implements DocumentParser {
+
+    // Level flags. The lower three are shared with transitions.
+    private static final int TRANSLATABLE = 1;
+    private static final int ESCAPE = 2;
+    private static final int HIDDEN = 4;
+    private static final int OPTION_VALUE = 8;
+    private static final int OPTION_CONSUMER = 16;
+    private static final int ARGUMENT_CONSUMER = 32;
+    private static final int LEVEL_PROPERTIES = TRANSLATABLE | ESCAPE | HIDDEN;
+    private static final int CONSUMERS = OPTION_CONSUMER | ARGUMENT_CONSUMER;
+
+    // Transition flags besides level properties
+    private static final int EXTERNAL = 8;              // Increase externality of new level
+    private static final int UNTRANSLATABLE_TOKEN = 16; // Argument start is not a part of FORMAT command
+    private static final int INHERIT_ESCAPE = 32;       // Take escape flag from parent level
+
+    private static final int[] NO_TRANSITIONS = new int[0];
+
+    private static final int INITIAL_DEPTH = 16;
+
+    private final CommandCenter commandCenter;
+    private EnvironmentStack environments;
+    private int lastTagId; // New tags get ID from this one
+    private boolean maskingTokens;
+
+    // Levels, root at 0
+    private int depth;
+    private int[] flags;
+    private int[] externalities;
+    private int[] tagIds;
+    private Command[] commands;
+    private int[] argumentCursors;
+    private int[] optionCursors;
+
+    public CompiledParser(CommandCenter cc) {
+        commandCenter = cc;
+        flags = new int[INITIAL_DEPTH];
+        externalities = new int[INITIAL_DEPTH];
+        tagIds = new int[INITIAL_DEPTH];
+        commands = new Command[INITIAL_DEPTH];
+        argumentCursors = new int[INITIAL_DEPTH];
+        optionCursors = new int[INITIAL_DEPTH];
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        lastTagId = 0;
+        maskingTokens = false;
+        environments = EnvironmentStack.EMPTY;
+        depth = -1;
+        addLevel(TRANSLATABLE | ESCAPE, 0); // Root level
+    }
+
+    @Override
+    public void reset(EnvironmentStack environments) {
+        reset();
+        this.environments = environments;
+    }
+
+    @Override
+    public boolean onRootLevel() {
+        return depth == 0;
+    }
+
+    @Override
+    public int getLastTagId() {
+        return lastTagId;
+    }
+
+    /**
+     * Argument transitions of a command: one per argument.
+     * @param type command type
+     * @param args command arguments
+     * @return transition masks
+     */
+    static int[] compileArguments(CommandType type, CommandArgument[] args) {
+        if (type == CommandType.CONTROL) {
+            return NO_TRANSITIONS;
+        }
+        boolean format = type == CommandType.FORMAT;
+        int[] transitions = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            CommandArgument arg = args[i];
+            // Non-translatable argument of FORMAT command
+            boolean hidden = !arg.isTranslatable() && format;
+            boolean translatable = arg.isTranslatable() || hidden;
+            boolean escape = arg.doEscape() && !hidden;
+            boolean external = arg.isExternal() && translatable && !hidden;
+            transitions[i] = pack(translatable, escape, hidden, external, !format, false);
+        }
+        return transitions;
+    }
+
+    /**
+     * Option transitions of a command: two per option for untranslatable and translatable parent level
+     * and the last two for options not in config.
+     * @param type command type
+     * @param options command options
+     * @return transition masks
+     */
+    static int[] compileOptions(CommandType type, CommandArgument[] options) {
+        if (type == CommandType.CONTROL) {
+            options = new CommandArgument[0];
+        }
+        boolean format = type == CommandType.FORMAT;
+        int[] transitions = new int[options.length * 2 + 2];
+        for (int i = 0; i < options.length; i++) {
+            CommandArgument option = options[i];
+            for (int parent = 0; parent < 2; parent++) {
+                boolean parentTranslatable = parent == 1;
+                // Non-translatable option of FORMAT command
+                boolean hidden = !option.isTranslatable() && parentTranslatable && format;
+                boolean translatable = parentTranslatable && (option.isTranslatable() || hidden);
+                boolean escape = option.doEscape() && !hidden;
+                boolean external = option.isExternal() && translatable && !hidden;
+                transitions[i * 2 + parent] = pack(translatable, escape, hidden, external, !format, false);
+            }
+        }
+        int last = options.length * 2;
+        transitions[last] = pack(false, false, false, false, !format, true);
+        transitions[last + 1] = pack(true, false, format, false, !format, true);
+        return transitions;
+    }
+
+    private static int pack(boolean translatable, boolean escape, boolean hidden, boolean external,
+                            boolean untranslatableToken, boolean inheritEscape) {
+        return (translatable ? TRANSLATABLE : 0) | (escape ? ESCAPE : 0) | (hidden ? HIDDEN : 0) |
+                (external ? EXTERNAL : 0) | (untranslatableToken ? UNTRANSLATABLE_TOKEN : 0) |
+                (inheritEscape ? INHERIT_ESCAPE : 0);
+    }
+
+    @Override
+    public void processToken(final TokenBuffer.Cursor token) {
+
+        int level = depth;
+        int tagId = 0;
+        int transition;
+        int newLevelFlags;
+        int newLevelExternality;
+        Command command;
+
+        TokenType tt = token.getType();
+
+        // Unregister command and remove consumer flags if this token is not an option/argument start
+        if (tt != TokenType.GROUP_BEGIN && tt != TokenType.OPTION_BEGIN) {
+            if (commands[level] != null) {
+                unregisterCommand(level);
+            }
+            flags[level] &= ~CONSUMERS;
+        }
+
+        // Inherit properties from current level
+        int levelFlags = flags[level];
+        int currentExternality = externalities[level];
+        boolean tokenTranslatable = (levelFlags & TRANSLATABLE) != 0;
+        boolean tokenEscapeContent = (levelFlags & ESCAPE) != 0;
+
+        switch (tt) {
+            case COMMAND:
+                if ((levelFlags & HIDDEN) != 0) {
+                    break;
+                }
+                command = commandCenter.getCommand(token.getBuffer(), token.getIndex());
+                registerCommand(level, command);
+                if (command.getType() == CommandType.FORMAT) {
+                    tagId = ++lastTagId;
+                    tagIds[level] = tagId;
+                } else {
+                    tokenTranslatable = false;
+                }
+                if (command.isUnknown()) {
+                    token.setName(UNKNOWN_COMMAND_NAME);
+                }
+                break;
+            case INLINE_MATH:
+                if ((levelFlags & HIDDEN) != 0) {
+                    break;
+                }
+                token.setName(INLINE_MATH_COMMAND_NAME);
+                tagId = ++lastTagId;
+                break;
+            case OPTION_BEGIN:
+                command = commands[level];
+                // Break early if token is not an option begin but a text
+                if (command == null && (levelFlags & OPTION_CONSUMER) == 0) {
+                    break;
+                }
+                newLevelExternality = currentExternality;
+                if ((levelFlags & OPTION_CONSUMER) != 0) {
+                    tokenTranslatable = false;
+                    newLevelFlags = levelFlags & (ESCAPE | HIDDEN);
+                } else {
+                    tagId = tagIds[level];
+                    int[] transitions = command.getOptionTransitions();
+                    int parent = levelFlags & TRANSLATABLE;
+                    int option = optionCursors[level];
+                    if (option * 2 + 2 < transitions.length) {
+                        optionCursors[level]++;
+                        transition = transitions[option * 2 + parent];
+                    } else { // No configured option
+                        transition = transitions[transitions.length - 2 + parent];
+                    }
+                    newLevelFlags = applyTransition(transition, levelFlags);
+                    if ((transition & EXTERNAL) != 0) {
+                        newLevelExternality += 1;
+                    }
+                    if ((transition & UNTRANSLATABLE_TOKEN) != 0) {
+                        tokenTranslatable = false;
+                    }
+                }
+                addLevel(newLevelFlags | OPTION_VALUE, newLevelExternality);
+
+                // Inherit tagId for hidden levels
+                if ((newLevelFlags & HIDDEN) != 0) {
+                    tagIds[depth] = tagIds[level];
+                }
+                break;
+            case OPTION_END:
+                if ((levelFlags & OPTION_VALUE) == 0) {
+                    break;
+                }
+                depth--;
+                currentExternality = externalities[depth];
+                tagId = tagIds[depth];
+                command = commands[depth];
+                if (command != null && command.getType() != CommandType.FORMAT) {
+                    tokenTranslatable = false;
+                }
+                break;
+            case GROUP_BEGIN:
+                boolean argumentConsumer = (levelFlags & ARGUMENT_CONSUMER) != 0;
+                newLevelFlags = levelFlags & (ESCAPE | HIDDEN);
+                if ((levelFlags & TRANSLATABLE) != 0 && !argumentConsumer) {
+                    newLevelFlags |= TRANSLATABLE;
+                }
+                newLevelExternality = currentExternality;
+                command = commands[level];
+
+                if (newLevelFlags == (TRANSLATABLE | (levelFlags & ESCAPE))) { // Translatable and not hidden
+                    int[] transitions = command == null ? NO_TRANSITIONS : command.getArgumentTransitions();
+                    if (argumentCursors[level] < transitions.length) {
+                        tagId = tagIds[level];
+                        transition = transitions[argumentCursors[level]++];
+                        newLevelFlags = transition & LEVEL_PROPERTIES;
+                        if ((transition & EXTERNAL) != 0) {
+                            newLevelExternality += 1;
+                        }
+                        // Group begin should be translatable only as part of a FORMAT command
+                        if ((transition & UNTRANSLATABLE_TOKEN) != 0) {
+                            tokenTranslatable = false;
+                        }
+                    } else { // Create virtual group command on orphan group begin
+                        token.setName(GROUP_COMMAND_NAME);
+                        registerCommand(level, commandCenter.getGroupCommand());
+                        argumentCursors[level] = 1; // Remove argument right away
+                        tagId = ++lastTagId;
+                        tagIds[level] = tagId;
+                    }
+                } else if (argumentConsumer) {
+                    tokenTranslatable = false;
+                }
+                addLevel(newLevelFlags, newLevelExternality);
+
+                // Inherit tagId for hidden levels
+                if ((newLevelFlags & HIDDEN) != 0) {
+                    tagIds[depth] = tagIds[level];
+                }
+                break;
+            case GROUP_END:
+                if (depth > 0) {
+                    depth--;
+                }
+                level = depth;
+                currentExternality = externalities[level];
+                tagId = tagIds[level];
+                command = commands[level];
+
+                if (command != null && command.getType() != CommandType.FORMAT) {
+                    tokenTranslatable = false;
+                }
+
+                if (command != null && argumentCursors[level] >= command.getArgumentTransitions().length &&
+                        (flags[level] & ARGUMENT_CONSUMER) == 0) {
+                    unregisterCommand(level);
+                    tagId = -tagId;  // Inverse tag id indicates last tag
+                }
+                break;
+            case ENV_BEGIN:
+                int environmentFlags = token.getBuffer().getNameFlags(token.getIndex());
+                environments = environments.push(token.getName(), environmentFlags);
+                if ((environmentFlags & CommandConfig.CONSUME_ARGUMENTS) != 0) {
+                    flags[level] |= ARGUMENT_CONSUMER;
+                }
+                if ((environmentFlags & CommandConfig.CONSUME_OPTIONS) != 0) {
+                    flags[level] |= OPTION_CONSUMER;
+                }
+                tokenTranslatable = false;
+                break;
+            case ENV_END:
+                String tokenEnvName = token.getName();
+                String stackEnvName;
+                if (environments.isEmpty()) {
+                    stackEnvName = "not present";
+                } else {
+                    stackEnvName = environments.getName();
+                }
+                if (tokenEnvName.equals(stackEnvName)) {
+                    environments = environments.pop();
+                } else {
+                    String sb = "Found end of environment " + tokenEnvName +
+                            " when last open environment was " + stackEnvName;
+                    throw new SimpleLatexFilterException(sb);
+                }
+                tokenTranslatable = false;
+                break;
+            case AMPERSAND:
+                if ((environments.getFlags() & CommandConfig.TABLE) != 0) {
+                    tokenTranslatable = false;
+                }
+                break;
+            case VERBATIM:
+                tokenEscapeContent = false;
+                break;
+            case DISPLAY_MATH:
+            case EMPTY_LINE:
+            case COMMENT:
+            case LINE_BREAK:
+            case DUMMY:
+                tokenTranslatable = false;
+                break;
+            case TEXT:
+            case STN:
+            default:  // Nothing to do here
+        }
+
+        // Mask untranslatable tokens inside external context
+        if (!tokenTranslatable && currentExternality > 0) {
+            tokenTranslatable = true;
+            token.setName(MASK_COMMAND_NAME);
+            if (!maskingTokens) {
+                lastTagId += 1; // New masking tag
+            }
+            tagId = lastTagId;
+            maskingTokens = true;
+        } else {
+            maskingTokens = false;
+        }
+
+        // Override properties for hidden tokens
+        if ((flags[depth] & HIDDEN) != 0) {
+            tagId = tagIds[depth];
+            tokenTranslatable = true;
+            tokenEscapeContent = false;
+        }
+
+        token.mark(tokenTranslatable, currentExternality, tagId, tokenEscapeContent, environments);
+    }
+
+    private static int applyTransition(int transition, int levelFlags) {
+        int result = transition & LEVEL_PROPERTIES;
+        if ((transition & INHERIT_ESCAPE) != 0) {
+            result |= levelFlags & ESCAPE;
+        }
+        return result;
+    }
+
+    private void registerCommand(int level, Command command) {
+        commands[level] = command;
+        argumentCursors[level] = 0;
+        optionCursors[level] = 0;
+        if (command.getType() == CommandType.CONTROL) {
+            flags[level] |= CONSUMERS;
+        } else {
+            flags[level] &= ~CONSUMERS;
+        }
+    }
+
+    private void unregisterCommand(int level) {
+        commands[level] = null;
+        tagIds[level] = 0;
+        argumentCursors[level] = 0;
+        optionCursors[level] = 0;
+        flags[level] &= ~CONSUMERS;
+    }
+
+    private void addLevel(int levelFlags, int externality) {
+        depth++;
+        if (depth == flags.length) {
+            int capacity = depth * 2;
+            flags = Arrays.copyOf(flags, capacity);
+            externalities = Arrays.copyOf(externalities, capacity);
+            tagIds = Arrays.copyOf(tagIds, capacity);
+            commands = Arrays.copyOf(commands, capacity);
+            argumentCursors = Arrays.copyOf(argumentCursors, capacity);
+            optionCursors = Arrays.copyOf(optionCursors, capacity);
+        }
+        flags[depth] = levelFlags;
+        externalities[depth] = externality;
+        tagIds[depth] = 0;
+        commands[depth] = null;
+        argumentCursors[depth] = 0;
+        optionCursors[depth] = 0;
+    }
+}
@@ -0,0 +1,159 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static com.pilulerouge.omegat.latex.Util.logLocalRB;
+
+/**
+ * Binary snapshot of parsed user config stored next to it.
+ * Snapshot is keyed by hash of config file content, so any change of the file makes it stale
+ * and JSON is parsed again. Snapshot data has a checksum, a damaged snapshot is ignored as well.
+ */
+final class ConfigCache {
+
+    private static final int MAGIC = 0x534c4643; // "SLFC"
+    private static final int FORMAT_VERSION = 2;
+    private static final String CACHE_SUFFIX = ".cache";
+
+    private ConfigCache() {
+    }
+
+    /**
+     * Load config from snapshot if it's up to date, otherwise parse JSON and save new snapshot.
+     * @param configFile JSON config file
+     * @return config snapshot
+     * @throws IOException on config read error or invalid config
+     */
+    static CommandConfig load(Path configFile) throws IOException {
+        byte[] json = Files.readAllBytes(configFile);
+        byte[] hash = hash(json);
+        Path cacheFile = configFile.resolveSibling(configFile.getFileName() + CACHE_SUFFIX);
+        CommandConfig config = readCache(cacheFile, hash);
+        if (config == null) {
+            config = CommandConfig.read(new ByteArrayInputStream(json));
+            writeCache(cacheFile, hash, config);
+        }
+        return config;
+    }
+
+    /**
+     * @return config or null if snapshot is missing, stale or broken
+     */
+    private static CommandConfig readCache(Path cacheFile, byte[] hash) {
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] cachedHash = new byte[in.readUnsignedByte()];
+            in.readFully(cachedHash);
+            if (!Arrays.equals(cachedHash, hash)) {
+                return null;
+            }
+            int size = in.readInt();
+            if (size < 0 || size > Files.size(cacheFile)) {
+                return null;
+            }
+            byte[] data = new byte[size];
+            long checksum = in.readLong();
+            in.readFully(data);
+            if (in.read() >= 0 || checksum(data) != checksum) {
+                return null;
+            }
+            ByteArrayInputStream dataStream = new ByteArrayInputStream(data);
+            CommandConfig config = CommandConfig.readBinary(new DataInputStream(dataStream));
+            return dataStream.available() == 0 ? config : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void writeCache(Path cacheFile, byte[] hash, CommandConfig config) {
+        Path tempFile = null;
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(data)) {
+                config.writeBinary(out);
+            }
+            // Write aside and move, so a concurrent reader never sees a partial snapshot
+            tempFile = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), null);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeByte(hash.length);
+                out.write(hash);
+                out.writeInt(data.size());
+                out.writeLong(checksum(data.toByteArray()));
+                data.writeTo(out);
+            }
+            try {
+                Files.move(tempFile, cacheFile, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            logLocalRB("LOG_USER_CONFIG_CACHE_FAILED", SimpleLatexFilter.class.getSimpleName(), cacheFile);
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                    // Nothing else to do
+                }
+            }
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    private static byte[] hash(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
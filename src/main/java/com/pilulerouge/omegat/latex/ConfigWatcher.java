@@ -0,0 +1,191 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.pilulerouge.omegat.latex.Util.logLocalRB;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Background thread reloading user config file when it changes.
+ * It also remembers command names used by processed documents to report which of them
+ * are affected by a changed config.
+ */
+final class ConfigWatcher implements Runnable {
+
+    private static final long SETTLE_DELAY_MS = 200; // Wait for editors to finish writing
+
+    private static volatile ConfigWatcher instance;
+
+    private final Path configFile;
+    private final Map<String, Set<String>> namesByDocument = new ConcurrentHashMap<>();
+    private Thread thread;
+    private volatile boolean stopped;
+
+    private ConfigWatcher(Path configFile) {
+        this.configFile = configFile;
+    }
+
+    /**
+     * Start watching config file unless it's watched already.
+     * @param configFile user config file
+     */
+    static synchronized void start(Path configFile) {
+        if (instance != null) {
+            return;
+        }
+        instance = new ConfigWatcher(configFile);
+        instance.thread = new Thread(instance, SimpleLatexFilter.class.getSimpleName() + " config watcher");
+        instance.thread.setDaemon(true);
+        instance.thread.start();
+    }
+
+    /**
+     * Stop watching config file and wait for watcher thread to exit.
+     * Config loaded last stays shared.
+     */
+    static synchronized void stop() {
+        ConfigWatcher watcher = instance;
+        if (watcher == null) {
+            return;
+        }
+        instance = null;
+        watcher.stopped = true;
+        watcher.thread.interrupt();
+        boolean interrupted = false;
+        while (watcher.thread.isAlive()) {
+            try {
+                watcher.thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static boolean isRunning() {
+        return instance != null;
+    }
+
+    /**
+     * Remember names used by a processed document.
+     * @param document source document
+     * @param names command and environment names
+     */
+    static void recordNames(File document, Set<String> names) {
+        ConfigWatcher watcher = instance;
+        if (watcher != null) {
+            watcher.namesByDocument.put(document.getPath(), Collections.unmodifiableSet(names));
+        }
+    }
+
+    /**
+     * Forget names of processed documents, e.g. when their project is closed.
+     */
+    static void forgetDocuments() {
+        ConfigWatcher watcher = instance;
+        if (watcher != null) {
+            watcher.namesByDocument.clear();
+        }
+    }
+
+    static int getDocumentCount() {
+        ConfigWatcher watcher = instance;
+        return watcher == null ? 0 : watcher.namesByDocument.size();
+    }
+
+    @Override
+    public void run() {
+        String pluginClassName = SimpleLatexFilter.class.getSimpleName();
+        Path directory = configFile.toAbsolutePath().getParent();
+        Path fileName = configFile.getFileName();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= fileName.equals(event.context());
+                    }
+                    if (!key.reset()) {
+                        return;
+                    }
+                    // Collect events of the same save together
+                    Thread.sleep(SETTLE_DELAY_MS);
+                    key = watchService.poll();
+                } while (key != null);
+                if (changed) {
+                    reload(pluginClassName);
+                }
+            }
+        } catch (IOException | ClosedWatchServiceException e) {
+            if (!stopped) {
+                logLocalRB("LOG_USER_CONFIG_WATCH_FAILED", pluginClassName, configFile);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reload(String pluginClassName) {
+        Set<String> changedNames;
+        try {
+            changedNames = CommandCenter.reloadUserConfig(configFile);
+        } catch (Exception e) {
+            // Reading is interrupted when watcher is stopped
+            if (!stopped) {
+                logLocalRB("LOG_USER_CONFIG_RELOAD_FAILED", pluginClassName, configFile);
+            }
+            return;
+        }
+        logLocalRB("LOG_USER_CONFIG_RELOADED", pluginClassName, configFile, changedNames.size());
+        if (changedNames.isEmpty()) {
+            return;
+        }
+        Set<String> documents = new TreeSet<>();
+        for (Map.Entry<String, Set<String>> e : namesByDocument.entrySet()) {
+            if (!Collections.disjoint(e.getValue(), changedNames)) {
+                documents.add(e.getKey());
+            }
+        }
+        if (!documents.isEmpty()) {
+            logLocalRB("LOG_USER_CONFIG_AFFECTED_DOCUMENTS", pluginClassName, String.join(", ", documents));
+        }
+    }
+}
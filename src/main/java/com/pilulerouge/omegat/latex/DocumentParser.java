@@ -0,0 +1,55 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+/**
+ * Marks document tokens one by one in order of appearance.
+ */
+public interface DocumentParser {
+
+    /**
+     * Parse token and store its parser mark.
+     * @param token cursor at token
+     */
+    void processToken(TokenBuffer.Cursor token);
+
+    /**
+     * Prepare for a new document.
+     */
+    void reset();
+
+    /**
+     * Prepare for a document part starting at root level.
+     * @param environments environments open at part start
+     */
+    void reset(EnvironmentStack environments);
+
+    /**
+     * @return true if no level except root is open
+     */
+    boolean onRootLevel();
+
+    /**
+     * @return last tag ID given out since reset
+     */
+    int getLastTagId();
+}
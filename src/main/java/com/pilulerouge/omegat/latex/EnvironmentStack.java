@@ -0,0 +1,111 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.pilulerouge.omegat.latex.Util.RB;
+
+/**
+ * Immutable stack of open environments. Every node is the top of a stack sharing its tail
+ * with the stack it was pushed on, so tokens can keep nodes without copying.
+ */
+public final class EnvironmentStack {
+
+    static final EnvironmentStack EMPTY = new EnvironmentStack(null, 0, null);
+
+    private final String name;
+    private final int flags; // Config flags of environment
+    private final EnvironmentStack parent;
+    private String comment; // Built on first request
+
+    private EnvironmentStack(String name, int flags, EnvironmentStack parent) {
+        this.name = name;
+        this.flags = flags;
+        this.parent = parent;
+    }
+
+    EnvironmentStack push(String name) {
+        return new EnvironmentStack(name, 0, this);
+    }
+
+    /**
+     * @param name environment name
+     * @param flags config flags of environment
+     * @return new stack top
+     */
+    EnvironmentStack push(String name, int flags) {
+        return new EnvironmentStack(name, flags, this);
+    }
+
+    /**
+     * @return stack without top environment, empty stack stays empty
+     */
+    EnvironmentStack pop() {
+        return parent == null ? this : parent;
+    }
+
+    boolean isEmpty() {
+        return parent == null;
+    }
+
+    /**
+     * @return name of the innermost environment or null for empty stack
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return config flags of the innermost environment
+     */
+    int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return environment names from outermost to innermost
+     */
+    List<String> toList() {
+        if (isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<>();
+        for (EnvironmentStack node = this; !node.isEmpty(); node = node.parent) {
+            names.add(node.name);
+        }
+        Collections.reverse(names);
+        return names;
+    }
+
+    /**
+     * @return segment comment listing environments or null for empty stack
+     */
+    String getComment() {
+        if (comment == null && !isEmpty()) {
+            comment = RB.getString("ENVIRONMENTS") + ": " + String.join(" > ", toList());
+        }
+        return comment;
+    }
+}
@@ -0,0 +1,136 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+/**
+ * LaTeX special character escaping for segment text.
+ * Each direction is a single scan producing the same result as the former chains of regular expression
+ * replacements applied in order: a special character preceded by backslash is left alone,
+ * {@code ~} stands for non-breaking space and {@code \~{}} for tilde itself.
+ * Not thread safe, result buffer is reused.
+ */
+final class Escaper {
+
+    static final char NBSP = '\u00A0';
+
+    // Character classes
+    private static final byte PLAIN = 0;
+    private static final byte SPECIAL = 1; // Escaped with backslash: % $ _ # &
+    private static final byte TILDE = 2;
+    private static final byte BACKSLASH = 3;
+
+    private static final byte[] CLASSES = new byte[128];
+    static {
+        for (char c : "%$_#&".toCharArray()) {
+            CLASSES[c] = SPECIAL;
+        }
+        CLASSES['~'] = TILDE;
+        CLASSES['\\'] = BACKSLASH;
+    }
+
+    private final StringBuilder sb = new StringBuilder();
+
+    private static byte classOf(char c) {
+        return c < 128 ? CLASSES[c] : PLAIN;
+    }
+
+    /**
+     * Turn LaTeX text into plain one: {@code \%} becomes {@code %}, {@code ~} becomes non-breaking space,
+     * {@code \~{}} becomes {@code ~}.
+     * @param text LaTeX text
+     * @return plain text
+     */
+    String unescape(String text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && classOf(text.charAt(i)) == PLAIN) {
+            i++;
+        }
+        if (i == length) {
+            return text;
+        }
+        sb.setLength(0);
+        sb.append(text, 0, i);
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            boolean escaped = i > 0 && text.charAt(i - 1) == '\\';
+            byte charClass = classOf(c);
+            if (charClass == TILDE && !escaped) {
+                sb.append(NBSP);
+            } else if (charClass == BACKSLASH && !escaped && i + 1 < length) {
+                char next = text.charAt(i + 1);
+                if (classOf(next) == SPECIAL) {
+                    sb.append(next);
+                    i++;
+                } else if (next == '~' && text.startsWith("{}", i + 2)) {
+                    sb.append('~');
+                    i += 3;
+                } else {
+                    sb.append(c);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Turn plain text into LaTeX one, reverse of {@link #unescape(String)}.
+     * Special characters already preceded by backslash are kept as is.
+     * @param text plain text
+     * @return LaTeX text
+     */
+    String escape(String text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && needsNoEscape(text.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return text;
+        }
+        sb.setLength(0);
+        sb.append(text, 0, i);
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == NBSP) {
+                sb.append('~');
+            } else {
+                byte charClass = classOf(c);
+                if (charClass == TILDE) {
+                    sb.append("\\~{}");
+                } else if (charClass == SPECIAL && (i == 0 || text.charAt(i - 1) != '\\')) {
+                    sb.append('\\').append(c);
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean needsNoEscape(char c) {
+        byte charClass = classOf(c);
+        return c != NBSP && (charClass == PLAIN || charClass == BACKSLASH);
+    }
+}
@@ -21,41 +21,45 @@
 
 package com.pilulerouge.omegat.latex;
 
-import java.util.List;
-
-public class ParserMark {
-    private final boolean translatable;
-    private final boolean escape;
-    private final int externality;
-    private final int tagId;
-    private final List<String> environments;
-
-    public ParserMark(boolean translatable, int externality, int tagId, boolean escape, List<String> environments) {
-        this.translatable = translatable;
-        this.escape = escape;
-        this.tagId = tagId;
-        this.externality = externality;
-        this.environments = environments;
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, used for token index sequences.
+ */
+final class IntList {
+
+    private int[] values;
+    private int size;
+
+    IntList() {
+        values = new int[16];
+        size = 0;
     }
 
-    public boolean isTranslatable() {
-        return translatable;
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
     }
 
-    public boolean doEscape() {
-        return escape;
+    int get(int index) {
+        return values[index];
     }
 
-    public int getExternality() {
-        return externality;
+    int getLast() {
+        return values[size - 1];
     }
 
-    public int getTagId() {
-        return tagId;
+    int size() {
+        return size;
     }
 
-    public List<String> getEnvironments() {
-        return environments;
+    boolean isEmpty() {
+        return size == 0;
     }
 
+    void clear() {
+        size = 0;
+    }
 }
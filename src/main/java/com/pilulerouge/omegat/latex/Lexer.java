@@ -0,0 +1,515 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hand-written replacement for token patterns of {@link Tokenizer}.
+ * Document is walked once and every pattern is matched by a small state machine dispatched
+ * on current character. Each pattern keeps its own cursor, so the produced match lists are
+ * exactly what {@link java.util.regex.Matcher#find()} loops would produce.
+ * Failed searches for closing sequences are remembered up to the line end, so unclosed openers
+ * cannot make the walk quadratic.
+ */
+final class Lexer {
+
+    // Concurrent patterns, same order as in Tokenizer.CONCURRENT_PATTERN_TOKENS
+    static final int URL = 0;
+    static final int VERBATIM = 1;
+    static final int COMMENT = 2;
+    static final int VERB = 3;
+
+    // Ordered patterns, same order as in Tokenizer.ORDERED_PATTERN_TOKENS
+    static final int ESCAPED_TILDE = 0;
+    static final int DOLLAR_MATH = 1;
+    static final int PARENTHESIS_MATH = 2;
+    static final int MATH_ENV = 3;
+    static final int BRACKET_MATH = 4;
+    static final int DISPLAYMATH_ENV = 5;
+    static final int EQUATION_ENV = 6;
+    static final int ENV_BEGIN = 7;
+    static final int ENV_END = 8;
+    static final int COMMAND = 9;
+    static final int GROUP_BEGIN = 10;
+    static final int GROUP_END = 11;
+    static final int OPTION_BEGIN = 12;
+    static final int OPTION_END = 13;
+    static final int AMPERSAND = 14;
+    static final int LINE_BREAK = 15;
+    static final int EMPTY_LINE = 16;
+
+    private static final String VERB_COMMAND = "\\verb";
+    private static final String VERBATIM_BEGIN = "\\begin{verbatim";
+    private static final String VERBATIM_END = "\\end{verbatim";
+    private static final String EQUATION_BEGIN = "\\begin{equation";
+    private static final String EQUATION_END = "\\end{equation";
+
+    private final CharSequence text;
+    private final int length;
+    private final MatchList[] concurrentMatches;
+    private final MatchList[] orderedMatches;
+    private final int[] concurrentCursors; // Positions where each pattern may match next
+    private final int[] orderedCursors;
+
+    // Failed closer searches by closer kind, see findCloser()
+    private final int[] missStarts;
+    private final int[] missEnds;
+
+    // Last positions of code points after the last failed \verb search up to its line end
+    private final Map<Integer, Integer> verbLastPositions;
+    private int verbMissStart;
+    private int verbMissEnd;
+
+    private Lexer(CharSequence text, MatchList[] concurrentMatches, MatchList[] orderedMatches) {
+        this.text = text;
+        this.length = text.length();
+        this.concurrentMatches = concurrentMatches;
+        this.orderedMatches = orderedMatches;
+        this.concurrentCursors = new int[concurrentMatches.length];
+        this.orderedCursors = new int[orderedMatches.length];
+        this.missStarts = new int[orderedMatches.length + 2];
+        this.missEnds = new int[orderedMatches.length + 2];
+        this.verbLastPositions = new HashMap<>();
+        this.verbMissStart = 0;
+        this.verbMissEnd = 0;
+    }
+
+    /**
+     * Collect matches of all token patterns.
+     * @param text document text
+     * @param concurrentMatches empty match lists for concurrent patterns
+     * @param orderedMatches empty match lists for ordered patterns
+     */
+    static void scan(CharSequence text, MatchList[] concurrentMatches, MatchList[] orderedMatches) {
+        new Lexer(text, concurrentMatches, orderedMatches).walk();
+    }
+
+    private void walk() {
+        for (int i = 0; i < length; i++) {
+            switch (text.charAt(i)) {
+                case '\\':
+                    matchBackslash(i);
+                    break;
+                case '$':
+                    if (notEscaped(i) && orderedCursors[DOLLAR_MATH] <= i) {
+                        int closer = findCloser(i + 1, DOLLAR_MATH);
+                        if (closer >= 0) {
+                            addOrdered(DOLLAR_MATH, i, closer + 1, -1, -1);
+                        }
+                    }
+                    break;
+                case '%':
+                    if (notEscaped(i) && concurrentCursors[COMMENT] <= i) {
+                        int end = i + 1;
+                        while (end < length && !isLineTerminator(text.charAt(end))) {
+                            end++;
+                        }
+                        addConcurrent(COMMENT, i, end, -1, -1);
+                    }
+                    break;
+                case '{':
+                    matchSingle(GROUP_BEGIN, i);
+                    matchUrl(i + 1);
+                    break;
+                case '}':
+                    matchSingle(GROUP_END, i);
+                    matchVerbatim(i + 1);
+                    break;
+                case '[':
+                    matchSingle(OPTION_BEGIN, i);
+                    break;
+                case ']':
+                    matchSingle(OPTION_END, i);
+                    break;
+                case '&':
+                    matchSingle(AMPERSAND, i);
+                    break;
+                case '\n':
+                    matchEmptyLine(i);
+                    break;
+                default:
+            }
+        }
+    }
+
+    private void matchBackslash(int i) {
+        // Line break has no lookbehind
+        if (orderedCursors[LINE_BREAK] <= i && i + 1 < length && text.charAt(i + 1) == '\\') {
+            addOrdered(LINE_BREAK, i, i + 2, -1, -1);
+        }
+
+        if (!notEscaped(i)) {
+            return;
+        }
+
+        if (concurrentCursors[VERB] <= i) {
+            matchVerb(i);
+        }
+
+        if (orderedCursors[ESCAPED_TILDE] <= i && startsWith("~{}", i + 1)) {
+            addOrdered(ESCAPED_TILDE, i, i + 4, -1, -1);
+        }
+
+        if (i + 1 < length) {
+            char next = text.charAt(i + 1);
+            if (next == '(' && orderedCursors[PARENTHESIS_MATH] <= i) {
+                int closer = findCloser(i + 2, PARENTHESIS_MATH);
+                if (closer >= 0) {
+                    addOrdered(PARENTHESIS_MATH, i, closer + 2, -1, -1);
+                }
+            } else if (next == '[' && orderedCursors[BRACKET_MATH] <= i) {
+                int closer = findCloser(i + 2, BRACKET_MATH);
+                if (closer >= 0) {
+                    addOrdered(BRACKET_MATH, i, closer + 2, -1, -1);
+                }
+            }
+        }
+
+        if (startsWith("begin", i + 1)) {
+            matchMathEnvironment(i, MATH_ENV, "\\begin{math}", "\\end{math}");
+            matchMathEnvironment(i, DISPLAYMATH_ENV, "\\begin{displaymath}", "\\end{displaymath}");
+            matchEquation(i);
+            matchEnvironment(i, ENV_BEGIN, 6);
+        } else if (startsWith("end", i + 1)) {
+            matchEnvironment(i, ENV_END, 4);
+        }
+
+        matchCommand(i);
+    }
+
+    /**
+     * Match `\verb` command with arbitrary delimiter.
+     * Content bounds are stored as match group.
+     */
+    private void matchVerb(int i) {
+        int delimiterStart = i + VERB_COMMAND.length();
+        if (!startsWith(VERB_COMMAND, i) || delimiterStart >= length) {
+            return;
+        }
+        int delimiter = Character.codePointAt(text, delimiterStart);
+        if (delimiter >= 'a' && delimiter <= 'z') {
+            return;
+        }
+        int contentStart = delimiterStart + Character.charCount(delimiter);
+        if (contentStart >= length || isLineTerminator(text.charAt(contentStart))) {
+            return;
+        }
+        int position = contentStart + Character.charCount(Character.codePointAt(text, contentStart));
+        // Lone surrogate delimiter may match half of a pair, so it is always searched for
+        boolean loneSurrogate = Character.isBmpCodePoint(delimiter) && Character.isSurrogate((char) delimiter);
+        if (!loneSurrogate && contentStart >= verbMissStart && contentStart < verbMissEnd) {
+            // Rest of the line is known, look the delimiter up instead of searching again
+            Integer lastPosition = verbLastPositions.get(delimiter);
+            if (lastPosition == null || lastPosition < position) {
+                return;
+            }
+        }
+        String delimiterString = text.subSequence(delimiterStart, contentStart).toString();
+        while (position < length) {
+            if (startsWith(delimiterString, position)) {
+                addConcurrent(VERB, i, position + delimiterString.length(), contentStart, position);
+                return;
+            }
+            if (isLineTerminator(text.charAt(position))) {
+                break;
+            }
+            position += Character.charCount(Character.codePointAt(text, position));
+        }
+        if (contentStart >= verbMissEnd) {
+            rememberVerbMiss(contentStart, position);
+        }
+    }
+
+    /**
+     * Remember code points of a line part where a \verb closing delimiter was not found.
+     * @param start search start
+     * @param end position of line terminator ending the search or document end
+     */
+    private void rememberVerbMiss(int start, int end) {
+        verbLastPositions.clear();
+        int position = start;
+        while (position < end) {
+            int codePoint = Character.codePointAt(text, position);
+            verbLastPositions.put(codePoint, position);
+            position += Character.charCount(codePoint);
+        }
+        if (end < length) {
+            verbLastPositions.put((int) text.charAt(end), end);
+        }
+        verbMissStart = start;
+        verbMissEnd = end;
+    }
+
+    /**
+     * Match URL text of href and url commands starting after opening brace.
+     */
+    private void matchUrl(int start) {
+        if (start >= length || concurrentCursors[URL] > start) {
+            return;
+        }
+        if (!endsWithCommand(start, "\\url{") && !endsWithCommand(start, "\\href{")) {
+            return;
+        }
+        int closer = findCloser(start, -1);
+        if (closer >= 0) {
+            addConcurrent(URL, start, closer, -1, -1);
+        }
+    }
+
+    /**
+     * Match content of one line verbatim environment starting after opening command.
+     */
+    private void matchVerbatim(int start) {
+        if (start >= length || concurrentCursors[VERBATIM] > start) {
+            return;
+        }
+        if (!endsWithCommand(start, VERBATIM_BEGIN + "}") && !endsWithCommand(start, VERBATIM_BEGIN + "*}")) {
+            return;
+        }
+        int closer = findCloser(start, -2);
+        if (closer >= 0) {
+            addConcurrent(VERBATIM, start, closer, -1, -1);
+        }
+    }
+
+    private void matchMathEnvironment(int i, int index, String opener, String closer) {
+        if (orderedCursors[index] > i || !startsWith(opener, i)) {
+            return;
+        }
+        int closerStart = findCloser(i + opener.length(), index);
+        if (closerStart >= 0) {
+            addOrdered(index, i, closerStart + closer.length(), -1, -1);
+        }
+    }
+
+    private void matchEquation(int i) {
+        if (orderedCursors[EQUATION_ENV] > i || !startsWith(EQUATION_BEGIN, i)) {
+            return;
+        }
+        int contentStart = starredEnd(i + EQUATION_BEGIN.length());
+        if (contentStart < 0) {
+            return;
+        }
+        int closerStart = findCloser(contentStart, EQUATION_ENV);
+        if (closerStart >= 0) {
+            addOrdered(EQUATION_ENV, i, starredEnd(closerStart + EQUATION_END.length()), -1, -1);
+        }
+    }
+
+    /**
+     * Match environment boundary like `\begin*{name}`.
+     * @param i backslash position
+     * @param index pattern index
+     * @param nameOffset offset of optional star from backslash
+     */
+    private void matchEnvironment(int i, int index, int nameOffset) {
+        if (orderedCursors[index] > i) {
+            return;
+        }
+        int position = i + nameOffset;
+        if (position < length && text.charAt(position) == '*') {
+            position++;
+        }
+        if (position >= length || text.charAt(position) != '{') {
+            return;
+        }
+        int nameStart = position + 1;
+        int nameEnd = skipLetters(nameStart, true);
+        if (nameEnd - nameStart >= 2 && nameEnd < length && text.charAt(nameEnd) == '}') {
+            addOrdered(index, i, nameEnd + 1, nameStart, nameEnd);
+        }
+    }
+
+    private void matchCommand(int i) {
+        if (orderedCursors[COMMAND] > i) {
+            return;
+        }
+        int nameEnd = skipLetters(i + 1, false);
+        if (nameEnd - i - 1 < 2) {
+            return;
+        }
+        int end = nameEnd;
+        if (end < length && text.charAt(end) == '*') {
+            end++;
+        }
+        addOrdered(COMMAND, i, end, i + 1, nameEnd);
+    }
+
+    private void matchSingle(int index, int i) {
+        if (notEscaped(i) && orderedCursors[index] <= i) {
+            addOrdered(index, i, i + 1, -1, -1);
+        }
+    }
+
+    /**
+     * Empty line is a newline followed by whitespace up to the last newline in it.
+     */
+    private void matchEmptyLine(int i) {
+        if (orderedCursors[EMPTY_LINE] > i) {
+            return;
+        }
+        int lastNewline = -1;
+        for (int position = i + 1; position < length && isWhitespace(text.charAt(position)); position++) {
+            if (text.charAt(position) == '\n') {
+                lastNewline = position;
+            }
+        }
+        if (lastNewline > i) {
+            addOrdered(EMPTY_LINE, i, lastNewline + 1, -1, -1);
+        }
+    }
+
+    /**
+     * Find closing sequence for lazy single line content.
+     * Content must be at least one character long and cannot contain line terminators.
+     * A failed search checks every closer position up to the line end, so searches starting
+     * later on the same line fail without looking again.
+     * @param contentStart content start position
+     * @param index ordered pattern index, -1 for URL and -2 for verbatim lookaheads
+     * @return closing sequence position or -1 if nothing found
+     */
+    private int findCloser(int contentStart, int index) {
+        if (contentStart >= length || isLineTerminator(text.charAt(contentStart))) {
+            return -1;
+        }
+        int slot = index + 2;
+        if (contentStart >= missStarts[slot] && contentStart < missEnds[slot]) {
+            return -1;
+        }
+        int position = contentStart + Character.charCount(Character.codePointAt(text, contentStart));
+        while (position < length) {
+            if (isCloser(position, index)) {
+                return position;
+            }
+            if (isLineTerminator(text.charAt(position))) {
+                break;
+            }
+            position += Character.charCount(Character.codePointAt(text, position));
+        }
+        missStarts[slot] = contentStart;
+        missEnds[slot] = position;
+        return -1;
+    }
+
+    private boolean isCloser(int position, int index) {
+        switch (index) {
+            case -1:
+                return text.charAt(position) == '}';
+            case -2:
+                return startsWith(VERBATIM_END, position) &&
+                        starredEnd(position + VERBATIM_END.length()) > 0;
+            case DOLLAR_MATH:
+                return text.charAt(position) == '$' && notEscaped(position);
+            case PARENTHESIS_MATH:
+                return notEscaped(position) && startsWith("\\)", position);
+            case BRACKET_MATH:
+                return notEscaped(position) && startsWith("\\]", position);
+            case MATH_ENV:
+                return notEscaped(position) && startsWith("\\end{math}", position);
+            case DISPLAYMATH_ENV:
+                return notEscaped(position) && startsWith("\\end{displaymath}", position);
+            case EQUATION_ENV:
+                return notEscaped(position) && startsWith(EQUATION_END, position) &&
+                        starredEnd(position + EQUATION_END.length()) > 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Skip optional star and mandatory closing brace.
+     * @param position position after environment name
+     * @return position after closing brace or -1 if there is none
+     */
+    private int starredEnd(int position) {
+        if (position < length && text.charAt(position) == '*') {
+            position++;
+        }
+        if (position < length && text.charAt(position) == '}') {
+            return position + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Check that text before position ends with a command not preceded by backslash.
+     */
+    private boolean endsWithCommand(int position, String command) {
+        int commandStart = position - command.length();
+        return commandStart >= 0 && startsWith(command, commandStart) &&
+                (commandStart == 0 || text.charAt(commandStart - 1) != '\\');
+    }
+
+    private boolean startsWith(String prefix, int position) {
+        if (position < 0 || position + prefix.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text.charAt(position + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int skipLetters(int position, boolean upperCase) {
+        while (position < length) {
+            char c = text.charAt(position);
+            if ((c >= 'a' && c <= 'z') || (upperCase && c >= 'A' && c <= 'Z')) {
+                position++;
+            } else {
+                break;
+            }
+        }
+        return position;
+    }
+
+    private boolean notEscaped(int position) {
+        return position == 0 || text.charAt(position - 1) != '\\';
+    }
+
+    private void addConcurrent(int index, int start, int end, int groupStart, int groupEnd) {
+        concurrentMatches[index].add(start, end, groupStart, groupEnd);
+        concurrentCursors[index] = end;
+    }
+
+    private void addOrdered(int index, int start, int end, int groupStart, int groupEnd) {
+        orderedMatches[index].add(start, end, groupStart, groupEnd);
+        orderedCursors[index] = end;
+    }
+
+    /**
+     * Line terminators as understood by `.` in regular expressions.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Whitespace as understood by `\s` in regular expressions.
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
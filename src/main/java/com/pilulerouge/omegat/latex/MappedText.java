@@ -0,0 +1,95 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Text of a memory-mapped file with one character per byte, read straight from the mapping.
+ */
+final class MappedText implements CharSequence {
+
+    private final ByteBuffer bytes;
+    private final char[] table; // Character of every byte value met in text
+    private final int offset;   // Byte position of the first character
+    private final int length;
+
+    /**
+     * @param bytes mapped file
+     * @param table characters of byte values
+     * @param offset byte position of text start
+     * @param length number of characters
+     */
+    MappedText(ByteBuffer bytes, char[] table, int offset, int length) {
+        this.bytes = bytes;
+        this.table = table;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Position " + index + " is out of text of length " + length);
+        }
+        return table[bytes.get(offset + index) & 0xFF];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange(start, end);
+        return new MappedText(bytes, table, offset + start, end - start);
+    }
+
+    /**
+     * Copy characters like {@link String#getChars}.
+     * @param start range start
+     * @param end range end (exclusive)
+     * @param target target array
+     * @param targetStart position of range start in target array
+     */
+    void getChars(int start, int end, char[] target, int targetStart) {
+        checkRange(start, end);
+        for (int i = start; i < end; i++) {
+            target[targetStart++] = table[bytes.get(offset + i) & 0xFF];
+        }
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        getChars(0, length, chars, 0);
+        return new String(chars);
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " is out of text of length " +
+                    length);
+        }
+    }
+}
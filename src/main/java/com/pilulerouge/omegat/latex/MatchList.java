@@ -0,0 +1,83 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.Arrays;
+
+/**
+ * Matches of a single token pattern in order of appearance.
+ * Each match keeps its bounds and bounds of its name group (command or environment name,
+ * \verb content), or -1 when there is no such group.
+ */
+final class MatchList {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] starts;
+    private int[] ends;
+    private int[] groupStarts;
+    private int[] groupEnds;
+    private int size;
+
+    MatchList() {
+        starts = new int[INITIAL_CAPACITY];
+        ends = new int[INITIAL_CAPACITY];
+        groupStarts = new int[INITIAL_CAPACITY];
+        groupEnds = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    void add(int start, int end, int groupStart, int groupEnd) {
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            groupStarts = Arrays.copyOf(groupStarts, capacity);
+            groupEnds = Arrays.copyOf(groupEnds, capacity);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        groupStarts[size] = groupStart;
+        groupEnds[size] = groupEnd;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getStart(int index) {
+        return starts[index];
+    }
+
+    int getEnd(int index) {
+        return ends[index];
+    }
+
+    int getGroupStart(int index) {
+        return groupStarts[index];
+    }
+
+    int getGroupEnd(int index) {
+        return groupEnds[index];
+    }
+}
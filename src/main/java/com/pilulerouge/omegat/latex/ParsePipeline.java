@@ -0,0 +1,205 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Parses a tokenized document in a background thread handing translation units over to the translating thread.
+ * A unit is a run of translatable tokens followed by a run of other tokens. Units are passed in batches through
+ * a bounded queue, so parsing runs ahead of translation by a limited number of units.
+ * Parser marks and renames only tokens not handed over yet, translation reads only handed over ones.
+ */
+final class ParsePipeline implements AutoCloseable {
+
+    private static final int QUEUE_CAPACITY = 16;       // Batches
+    static final int UNITS_PER_BATCH = 256;
+    private static final int UNIT_SIZE = 3;             // Segment start, plain tokens start, end
+    private static final int[] END = new int[0];
+
+    private final BlockingQueue<int[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final int unitsPerBatch;
+    private final int countIndex; // Batch element holding number of units
+    private final Thread thread;
+    private Throwable failure; // Published by END batch
+
+    // Consumer state
+    private int[] batch;
+    private int position;
+    private boolean finished;
+
+    /**
+     * Start parsing.
+     * @param tokens tokenized document
+     * @param parser parser in its initial state, must not be used until pipeline is closed
+     */
+    ParsePipeline(TokenBuffer tokens, DocumentParser parser) {
+        this(tokens, parser, UNITS_PER_BATCH);
+    }
+
+    /**
+     * Start parsing handing units over in batches of a given size.
+     * @param tokens tokenized document
+     * @param parser parser in its initial state, must not be used until pipeline is closed
+     * @param unitsPerBatch maximum number of units in a batch
+     */
+    ParsePipeline(TokenBuffer tokens, DocumentParser parser, int unitsPerBatch) {
+        this.unitsPerBatch = unitsPerBatch;
+        countIndex = unitsPerBatch * UNIT_SIZE;
+        thread = new Thread(() -> produce(tokens, parser), SimpleLatexFilter.class.getSimpleName() + " parser");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void produce(TokenBuffer tokens, DocumentParser parser) {
+        int[] units = new int[countIndex + 1];
+        TokenBuffer.Cursor cursor = tokens.cursor();
+        int segmentStart = 0; // First token of pending unit
+        int plainStart = -1;  // First untranslatable token of pending unit or -1
+        try {
+            try {
+                while (cursor.hasNext()) {
+                    int token = cursor.next();
+                    parser.processToken(cursor);
+                    if (!cursor.isTranslatable()) {
+                        if (plainStart < 0) {
+                            plainStart = token;
+                        }
+                        continue;
+                    }
+                    if (plainStart >= 0) {
+                        units = addUnit(units, segmentStart, plainStart, token);
+                        segmentStart = token;
+                        plainStart = -1;
+                    }
+                }
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            // Untranslatable tokens preceding an error are written out as in sequential translation,
+            // translatable ones at the end are not
+            if (plainStart >= 0) {
+                int end = failure == null ? tokens.size() : cursor.getIndex();
+                units = addUnit(units, segmentStart, plainStart, end);
+            }
+            if (units[countIndex] > 0) {
+                queue.put(units);
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // Pipeline is closed
+        }
+    }
+
+    private int[] addUnit(int[] units, int segmentStart, int plainStart, int end) throws InterruptedException {
+        int count = units[countIndex];
+        units[count * UNIT_SIZE] = segmentStart;
+        units[count * UNIT_SIZE + 1] = plainStart;
+        units[count * UNIT_SIZE + 2] = end;
+        units[countIndex] = ++count;
+        if (count < unitsPerBatch) {
+            return units;
+        }
+        queue.put(units);
+        return new int[units.length];
+    }
+
+    /**
+     * Move to next unit, waiting for it to be parsed.
+     * @return false if there are no more units
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    boolean next() throws InterruptedIOException {
+        if (finished) {
+            return false;
+        }
+        position += UNIT_SIZE;
+        while (batch == null || position >= batch[countIndex] * UNIT_SIZE) {
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            position = 0;
+            if (batch == END) {
+                finished = true;
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure != null) {
+                    throw (RuntimeException) failure;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return first translatable token of current unit
+     */
+    int getSegmentStart() {
+        return batch[position];
+    }
+
+    /**
+     * @return first untranslatable token of current unit, equal to segment start if there are no translatable ones
+     */
+    int getPlainStart() {
+        return batch[position + 1];
+    }
+
+    /**
+     * @return index after last token of current unit
+     */
+    int getEnd() {
+        return batch[position + 2];
+    }
+
+    /**
+     * @return true if parser thread has not exited yet
+     */
+    boolean isParsing() {
+        return thread.isAlive();
+    }
+
+    /**
+     * Stop parsing if it's not finished and wait for parser thread to exit.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
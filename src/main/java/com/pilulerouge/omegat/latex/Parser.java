@@ -21,41 +21,53 @@
 
 package com.pilulerouge.omegat.latex;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 import static com.pilulerouge.omegat.latex.Command.*;
 
-public class Parser {
+public class Parser implements DocumentParser {
 
-    private final LinkedList<ParserLevel> levels;
+    private static final int INITIAL_DEPTH = 16;
+
+    private ParserLevel[] levels; // Stack of reusable level frames, root at 0
+    private int depth;            // Index of current level
     private final CommandCenter commandCenter;
-    private final LinkedList<String> environments;
-    private List<String> currentEnvironments;
+    private EnvironmentStack environments; // Shared with marked tokens, never modified
     private int lastTagId; // New tags get ID from this one
     private boolean maskingTokens;
 
     public Parser(CommandCenter cc) {
         commandCenter = cc;
-        levels = new LinkedList<>();
-        levels.add(new ParserLevel(true, 0, true, false, false));
+        levels = new ParserLevel[INITIAL_DEPTH];
+        levels[0] = new ParserLevel(true, 0, true, false, false); // Root level
+        depth = 0;
         lastTagId = 0;
         maskingTokens = false;
-        environments = new LinkedList<>();
-        currentEnvironments = Collections.emptyList();
+        environments = EnvironmentStack.EMPTY;
+    }
+
+    @Override
+    public void reset(EnvironmentStack environments) {
+        reset();
+        this.environments = environments;
+    }
+
+    @Override
+    public int getLastTagId() {
+        return lastTagId;
     }
 
+    @Override
     public void reset() {
         lastTagId = 0;
         maskingTokens = false;
-        levels.clear();
-        levels.add(new ParserLevel(true, 0, true, false, false)); // Root level
-        environments.clear();
-        currentEnvironments = Collections.emptyList();
+        levels[0].init(true, 0, true, false, false); // Root level
+        depth = 0;
+        environments = EnvironmentStack.EMPTY;
     }
 
-    public void processToken(final Token token) {
+    @Override
+    public void processToken(final TokenBuffer.Cursor token) {
 
         Command command;
         ParserLevel parentLevel;
@@ -91,7 +103,7 @@ public class Parser {
                 if (currentLevel.isHidden()) {
                     break;
                 }
-                command = commandCenter.getCommand(token.getName());
+                command = commandCenter.getCommand(token.getBuffer(), token.getIndex());
                 currentLevel.registerCommand(command);
                 if (command.getType() == CommandType.FORMAT) {
                     tagId = ++lastTagId;
@@ -230,7 +242,7 @@ public class Parser {
                 break;
             case ENV_BEGIN:
                 String envName = token.getName();
-                environments.addLast(envName);
+                environments = environments.push(envName);
 
                 if (commandCenter.isArgumentConsumer(envName)) {
                     currentLevel.setArgumentConsumer(true);
@@ -239,7 +251,6 @@ public class Parser {
                     currentLevel.setOptionConsumer(true);
                 }
 
-                currentEnvironments = Collections.unmodifiableList(environments);
                 tokenTranslatable = false;
                 break;
             case ENV_END:
@@ -248,11 +259,10 @@ public class Parser {
                 if (environments.isEmpty()) {
                     stackEnvName = "not present";
                 } else {
-                    stackEnvName = environments.getLast();
+                    stackEnvName = environments.getName();
                 }
                 if (tokenEnvName.equals(stackEnvName)) {
-                    environments.removeLast();
-                    currentEnvironments = Collections.unmodifiableList(environments);
+                    environments = environments.pop();
                 } else {
                     String sb = "Found end of environment " + tokenEnvName +
                             " when last open environment was " + stackEnvName;
@@ -261,7 +271,7 @@ public class Parser {
                 tokenTranslatable = false;
                 break;
             case AMPERSAND:
-                if (!environments.isEmpty() && commandCenter.isTableEnvironment(environments.getLast())) {
+                if (!environments.isEmpty() && commandCenter.isTableEnvironment(environments.getName())) {
                     tokenTranslatable = false;
                 }
                 break;
@@ -301,23 +311,32 @@ public class Parser {
             tokenEscapeContent = false;
         }
 
-        token.addParserMark(tokenTranslatable, currentExternality, tagId, tokenEscapeContent, currentEnvironments);
+        token.mark(tokenTranslatable, currentExternality, tagId, tokenEscapeContent, environments);
     }
 
     private void addLevel(final boolean translatable, final int externality, final boolean escape,
                           final boolean hidden, final boolean is_option) {
-        levels.addLast(new ParserLevel(translatable, externality, escape, hidden, is_option));
+        depth++;
+        if (depth == levels.length) {
+            levels = Arrays.copyOf(levels, depth * 2);
+        }
+        if (levels[depth] == null) {
+            levels[depth] = new ParserLevel(translatable, externality, escape, hidden, is_option);
+        } else {
+            levels[depth].init(translatable, externality, escape, hidden, is_option);
+        }
     }
 
     private void removeLevel() {
-        levels.removeLast();
+        depth--;
     }
 
     public ParserLevel getCurrentLevel() {
-        return levels.getLast();
+        return levels[depth];
     }
 
-    private boolean onRootLevel() {
-        return levels.size() == 1;
+    @Override
+    public boolean onRootLevel() {
+        return depth == 0;
     }
 }
\ No newline at end of file
@@ -21,56 +21,64 @@
 
 package com.pilulerouge.omegat.latex;
 
-import java.util.Arrays;
-import java.util.LinkedList;
-
 /**
  * This class describes the state of particular depth level in document parser.
+ * Levels are reusable frames: parser keeps them in a stack and initializes a frame on every push.
  */
 class ParserLevel {
 
+    private static final CommandArgument[] NO_ARGUMENTS = new CommandArgument[0];
+
     private boolean optionConsumer;                // Consume OPTIONS token or treat it as text?
     private boolean argumentConsumer;              // Consume all incoming arguments
-    private final boolean translatable;            // How to treat tokens inside this level
+    private boolean translatable;                  // How to treat tokens inside this level
     private Command command;                       // Name of current command in this level or null
     private int tagId;                             // Unique tag id for FORMAT command or group.
-    private final int externality;                 // Externality level
-    private final boolean escape;                  // Escape special sequences in this level
-    private final boolean hidden;                  // Treat level as translatable but hide content from translation.
+    private int externality;                       // Externality level
+    private boolean escape;                        // Escape special sequences in this level
+    private boolean hidden;                        // Treat level as translatable but hide content from translation.
                                                    // Used in FORMAT commands without translatable content.
-    private final boolean isOptionValue;           // True, if level is created for optional command/env argument.
+    private boolean isOptionValue;                 // True, if level is created for optional command/env argument.
                                                    // Used for detection of an optional argument end.
 
-    private LinkedList<CommandArgument> commandArguments; // Defined arguments of current command.
-    private LinkedList<CommandArgument> commandOptions;   // Defined arguments of current command.
+    private CommandArgument[] commandArguments;    // Defined arguments of current command.
+    private int argumentCursor;                    // Next argument to fetch
+    private CommandArgument[] commandOptions;      // Defined options of current command.
+    private int optionCursor;                      // Next option to fetch
 
     ParserLevel(final boolean translatable, final int externality, final boolean escape, final boolean hidden,
                 final boolean isOptionValue) {
+        init(translatable, externality, escape, hidden, isOptionValue);
+    }
+
+    /**
+     * Reset frame to a freshly created level state.
+     */
+    void init(final boolean translatable, final int externality, final boolean escape, final boolean hidden,
+              final boolean isOptionValue) {
         this.translatable = translatable;
         this.externality = externality;
         this.escape = escape;
         this.hidden = hidden;
         this.isOptionValue = isOptionValue;
-        this.optionConsumer = false;
-        this.argumentConsumer = false;
-        this.command = null;
-        this.tagId = 0;
-        this.commandArguments = new LinkedList<>();
-        this.commandOptions = new LinkedList<>();
+        unregisterCommand();
     }
 
     void registerCommand(Command command) {
         this.command = command;
+        argumentCursor = 0;
+        optionCursor = 0;
         if (command.getType() == CommandType.CONTROL) {
             optionConsumer = true;
             argumentConsumer = true;
-            commandArguments = new LinkedList<>();
-            commandOptions = new LinkedList<>();
+            commandArguments = NO_ARGUMENTS;
+            commandOptions = NO_ARGUMENTS;
         } else {
             optionConsumer = false;
             argumentConsumer = false;
-            commandArguments = new LinkedList<>(Arrays.asList(command.getArgs()));
-            commandOptions = new LinkedList<>(Arrays.asList(command.getOptions()));
+            // Config arrays are never modified, so they are walked with cursors instead of being copied
+            commandArguments = command.getArgs();
+            commandOptions = command.getOptions();
         }
     }
 
@@ -79,16 +87,18 @@ class ParserLevel {
         tagId = 0;
         argumentConsumer = false;
         optionConsumer = false;
-        commandArguments.clear();
-        commandOptions.clear();
+        commandArguments = NO_ARGUMENTS;
+        argumentCursor = 0;
+        commandOptions = NO_ARGUMENTS;
+        optionCursor = 0;
     }
 
     boolean hasArgumentInQueue() {
-        return !commandArguments.isEmpty();
+        return argumentCursor < commandArguments.length;
     }
 
     boolean hasOptionInQueue() {
-        return !commandOptions.isEmpty();
+        return optionCursor < commandOptions.length;
     }
 
     Command getCommand() {
@@ -148,11 +158,11 @@ class ParserLevel {
     }
 
     CommandArgument fetchArgument() {
-        return commandArguments.removeFirst();
+        return commandArguments[argumentCursor++];
     }
 
     CommandArgument fetchOption() {
-        return commandOptions.removeFirst();
+        return commandOptions[optionCursor++];
     }
 
     boolean doEscape() {
@@ -0,0 +1,127 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.Arrays;
+
+/**
+ * Tracks document ranges occupied by accepted tokens.
+ * Ranges are kept as sorted non-overlapping intervals in primitive arrays, adjacent ones are joined.
+ * Tokens are occupied in batches: matches of one pattern come in order of appearance and never overlap
+ * each other, so a batch is checked only against committed intervals and merged in one linear pass.
+ */
+final class Residency {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] starts;
+    private int[] ends;
+    private int size;
+
+    private int[] pendingStarts;
+    private int[] pendingEnds;
+    private int pendingSize;
+
+    Residency() {
+        starts = new int[INITIAL_CAPACITY];
+        ends = new int[INITIAL_CAPACITY];
+        size = 0;
+        pendingStarts = new int[INITIAL_CAPACITY];
+        pendingEnds = new int[INITIAL_CAPACITY];
+        pendingSize = 0;
+    }
+
+    /**
+     * Check that range doesn't overlap committed intervals.
+     * @param start range start
+     * @param end range end (exclusive)
+     * @return true if range is vacant
+     */
+    boolean isVacant(int start, int end) {
+        // Find last interval starting before range end
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < end) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high < 0 || ends[high] <= start;
+    }
+
+    /**
+     * Add range to current batch. Ranges of a batch must come in order of appearance.
+     * @param start range start
+     * @param end range end (exclusive)
+     */
+    void occupy(int start, int end) {
+        if (pendingSize > 0 && pendingEnds[pendingSize - 1] == start) {
+            pendingEnds[pendingSize - 1] = end;
+            return;
+        }
+        if (pendingSize == pendingStarts.length) {
+            pendingStarts = Arrays.copyOf(pendingStarts, pendingSize * 2);
+            pendingEnds = Arrays.copyOf(pendingEnds, pendingSize * 2);
+        }
+        pendingStarts[pendingSize] = start;
+        pendingEnds[pendingSize] = end;
+        pendingSize++;
+    }
+
+    /**
+     * Merge current batch into committed intervals.
+     */
+    void commit() {
+        if (pendingSize == 0) {
+            return;
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, size + pendingSize);
+        int[] newStarts = new int[capacity];
+        int[] newEnds = new int[capacity];
+        int newSize = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < pendingSize) {
+            int start, end;
+            if (j == pendingSize || (i < size && starts[i] < pendingStarts[j])) {
+                start = starts[i];
+                end = ends[i++];
+            } else {
+                start = pendingStarts[j];
+                end = pendingEnds[j++];
+            }
+            if (newSize > 0 && newEnds[newSize - 1] == start) {
+                newEnds[newSize - 1] = end;
+            } else {
+                newStarts[newSize] = start;
+                newEnds[newSize++] = end;
+            }
+        }
+        starts = newStarts;
+        ends = newEnds;
+        size = newSize;
+        pendingSize = 0;
+    }
+}
@@ -0,0 +1,216 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+/**
+ * Parses document sections concurrently.
+ * Documents usually return to root level at every chapter and section command. Environments don't depend
+ * on parser levels, so the ones open at section start are known from a cheap pre-scan. Sections are parsed
+ * speculatively from root level with their own tag numbering. Then they are joined in order: a section is
+ * accepted if the parser of the previous part ended on root level, otherwise that parser goes on over the section
+ * sequentially. Tag IDs are moved by the number of tags given out before, so marks are exactly those of a
+ * sequential parse.
+ */
+final class SectionParser {
+
+    private static final String[] SECTION_COMMANDS = { "chapter", "section" };
+    private static final int MIN_SECTION_TOKENS = 1 << 14;
+    private static final int SECTIONS_PER_THREAD = 4;
+
+    /**
+     * Parse all tokens of a buffer.
+     * If parsing fails, token names are restored, so the document can be parsed again sequentially.
+     * @param tokens document tokens
+     * @param parser parser to use for sequential parsing, it's reset first
+     * @param parserFactory source of parsers for concurrent sections
+     */
+    static void parse(TokenBuffer tokens, DocumentParser parser, Supplier<DocumentParser> parserFactory) {
+        parse(tokens, parser, parserFactory, MIN_SECTION_TOKENS);
+    }
+
+    /**
+     * Parse all tokens of a buffer splitting it into sections of a given minimum size.
+     * @param tokens document tokens
+     * @param parser parser to use for sequential parsing, it's reset first
+     * @param parserFactory source of parsers for concurrent sections
+     * @param minSectionTokens minimum number of tokens in a section
+     */
+    static void parse(TokenBuffer tokens, DocumentParser parser, Supplier<DocumentParser> parserFactory,
+                      int minSectionTokens) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        List<Section> sections = findSections(tokens, pool.getParallelism() * SECTIONS_PER_THREAD,
+                minSectionTokens);
+        // Parsers rename tokens, rejected sections and failed parsing need original names
+        int[] nameIds = tokens.copyNameIds();
+        parser.reset();
+        if (sections == null || sections.size() < 2) {
+            try {
+                parseRange(tokens, 0, tokens.size(), parser);
+            } catch (RuntimeException e) {
+                tokens.restoreNameIds(nameIds, 0, tokens.size());
+                throw e;
+            }
+            return;
+        }
+
+        // First section starts at document start, the real state
+        sections.get(0).parser = parser;
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(sections.size());
+        for (Section section : sections) {
+            if (section.parser == null) {
+                section.parser = parserFactory.get();
+            }
+            tasks.add(pool.submit(() -> section.parse(tokens)));
+        }
+
+        try {
+            joinSections(tokens, sections, tasks, nameIds);
+        } catch (RuntimeException e) {
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+            tokens.restoreNameIds(nameIds, 0, tokens.size());
+            throw e;
+        }
+    }
+
+    /**
+     * Accept speculative results of sections in order parsing rejected ones sequentially.
+     */
+    private static void joinSections(TokenBuffer tokens, List<Section> sections, List<ForkJoinTask<?>> tasks,
+                                     int[] nameIds) {
+        DocumentParser runParser = null;
+        int runOffset = 0; // Tags given out before the run parser was started
+        for (int i = 0; i < sections.size(); i++) {
+            Section section = sections.get(i);
+            tasks.get(i).join();
+            if (runParser == null || runParser.onRootLevel()) {
+                // Section entry state is the assumed one
+                if (section.error != null) {
+                    throw section.error;
+                }
+                if (runParser != null) {
+                    runOffset += runParser.getLastTagId();
+                }
+                runParser = section.parser;
+            } else {
+                // Continue parsing with the real state
+                tokens.restoreNameIds(nameIds, section.from, section.to);
+                parseRange(tokens, section.from, section.to, runParser);
+            }
+            tokens.shiftTagIds(section.from, section.to, runOffset);
+        }
+    }
+
+    /**
+     * Split tokens at section commands keeping track of open environments.
+     * @param tokens document tokens
+     * @param count desired number of sections
+     * @param minSectionTokens minimum number of tokens in a section
+     * @return sections or null if environments don't match
+     */
+    private static List<Section> findSections(TokenBuffer tokens, int count, int minSectionTokens) {
+        int sectionSize = Math.max(minSectionTokens, tokens.size() / count);
+        List<Section> sections = new ArrayList<>();
+        Section section = new Section(0, EnvironmentStack.EMPTY);
+        sections.add(section);
+        EnvironmentStack environments = EnvironmentStack.EMPTY;
+        for (int i = 0; i < tokens.size(); i++) {
+            switch (tokens.getType(i)) {
+                case ENV_BEGIN:
+                    environments = environments.push(tokens.getName(i), tokens.getNameFlags(i));
+                    break;
+                case ENV_END:
+                    if (environments.isEmpty() || !tokens.getName(i).equals(environments.getName())) {
+                        return null; // Let parser report it
+                    }
+                    environments = environments.pop();
+                    break;
+                case COMMAND:
+                    if (i - section.from >= sectionSize && isSectionCommand(tokens.getName(i))) {
+                        section.to = i;
+                        section = new Section(i, environments);
+                        sections.add(section);
+                    }
+                    break;
+                default:
+            }
+        }
+        section.to = tokens.size();
+        return sections;
+    }
+
+    private static boolean isSectionCommand(String name) {
+        for (String command : SECTION_COMMANDS) {
+            if (command.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void parseRange(TokenBuffer tokens, int from, int to, DocumentParser parser) {
+        TokenBuffer.Cursor cursor = tokens.cursor(from);
+        for (int i = from; i < to; i++) {
+            cursor.next();
+            parser.processToken(cursor);
+        }
+    }
+
+    /**
+     * Token range parsed with its own parser.
+     */
+    private static final class Section {
+
+        private final int from;
+        private int to;
+        private final EnvironmentStack environments; // Open at section start
+        private DocumentParser parser;
+        private RuntimeException error;
+
+        private Section(int from, EnvironmentStack environments) {
+            this.from = from;
+            this.environments = environments;
+        }
+
+        private void parse(TokenBuffer tokens) {
+            if (from > 0) {
+                parser.reset(environments);
+            }
+            try {
+                parseRange(tokens, from, to, parser);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+    }
+
+    private SectionParser() {
+        // No instances allowed
+    }
+}
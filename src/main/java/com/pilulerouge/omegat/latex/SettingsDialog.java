@@ -55,6 +55,12 @@ final class SettingsDialog extends JDialog {
     static final String CONF_LOAD_USER_CONFIG = "loadUserConfig";
     static final String CONF_LATEX_COMMAND_COLOR = "latexCommandColor";
     static final String CONF_CURLY_BRACE_COLOR = "curlyBraceColor";
+    static final String CONF_TOKENIZER = "tokenizer";
+    static final String CONF_INPUT = "input";
+    static final String CONF_PARALLEL_TOKENIZER = "parallelTokenizer";
+    static final String CONF_PARSER = "parser";
+    static final String CONF_PARALLEL_PARSER = "parallelParser";
+    static final String CONF_PIPELINE = "pipeline";
 
     static final String DEFAULT_LATEX_COMMAND_COLOR = "#00A517";
     static final String DEFAULT_CURLY_BRACE_COLOR = "#389BCD";
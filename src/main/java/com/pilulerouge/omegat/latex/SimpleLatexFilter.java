@@ -25,135 +25,244 @@ package com.pilulerouge.omegat.latex;
 import java.awt.Window;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.nio.CharBuffer;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.omegat.core.Core;
 
 import org.omegat.core.CoreEvents;
 import org.omegat.core.events.IApplicationEventListener;
+import org.omegat.core.events.IProjectEventListener;
 import org.omegat.filters2.AbstractFilter;
 import org.omegat.filters2.FilterContext;
 import org.omegat.filters2.Instance;
+import org.omegat.filters2.TranslationException;
 import org.omegat.util.Log;
 
 import static com.pilulerouge.omegat.latex.Command.GROUP_COMMAND_NAME;
+import static com.pilulerouge.omegat.latex.SettingsDialog.CONF_INPUT;
+import static com.pilulerouge.omegat.latex.SettingsDialog.CONF_PARALLEL_PARSER;
+import static com.pilulerouge.omegat.latex.SettingsDialog.CONF_PARALLEL_TOKENIZER;
+import static com.pilulerouge.omegat.latex.SettingsDialog.CONF_PARSER;
+import static com.pilulerouge.omegat.latex.SettingsDialog.CONF_PIPELINE;
+import static com.pilulerouge.omegat.latex.SettingsDialog.CONF_TOKENIZER;
 import static com.pilulerouge.omegat.latex.Tokenizer.tokenizeDocument;
-import static com.pilulerouge.omegat.latex.Util.RB;
+import static com.pilulerouge.omegat.latex.Util.getBooleanOption;
+import static com.pilulerouge.omegat.latex.Util.getEnumOption;
+import static com.pilulerouge.omegat.latex.Util.logLocalRB;
 import static com.pilulerouge.omegat.latex.Util.readBufferWithLinebreaks;
+import static com.pilulerouge.omegat.latex.Util.readMappedFile;
 
 
 public class SimpleLatexFilter extends AbstractFilter {
 
-    private String sourceDocument;
+    private CharSequence sourceDocument;
     private BufferedWriter fileWriter;
-    private final CommandCenter commandCenter;
-    private final Parser parser;
-
-    private ListIterator<Token> tokenIterator;
-
-    private static final Pattern STN_HEAD = Pattern.compile("^[\\s\\t\\n]+");
-    private static final Pattern STN_TAIL = Pattern.compile("[\\s\\t\\n]+$");
-
-    /**
-     * Unescape patterns with substitutions. ORDER IS IMPORTANT!
-     */
-    private static final Map<Pattern, String> UNESCAPE_MAP = new LinkedHashMap<>();
-    static {
-        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\%"),"%");
-        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\[$]"),"\\$");
-        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\_"),"_");
-        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\#"),"#");
-        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\&"),"&");
-        // UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\[{]"),"\\{");
-        // UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\[}]"),"\\}");
-        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)~")," "); // Non-breaking space
-        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)[\\\\]~[{][}]"),"~");
-    }
-
-    /**
-     * Escape patterns with substitutions. ORDER IS IMPORTANT!
-     */
-    private static final Map<Pattern, String> ESCAPE_MAP = new LinkedHashMap<>();
-    static {
-        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)%"), "\\\\%");
-        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)[$]"), "\\\\\\$");
-        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)_"), "\\\\_");
-        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)#"), "\\\\#");
-        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)&"), "\\\\&");
-        // ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)[{]"), "\\\\\\{");
-        // ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)[}]"), "\\\\\\}");
-        ESCAPE_MAP.put(Pattern.compile("~"), "\\\\~\\{\\}");
-        ESCAPE_MAP.put(Pattern.compile(" "), "~");
-    }
+    private final boolean useInternalConfig;
+    private CommandCenter commandCenter; // Config snapshot of the current document
+    private DocumentParser parser;
+    private TagAllocator tags; // Created for every document
+    private final Escaper escaper = new Escaper();
+    private SegmentBuffers buffers; // Buffers of the thread processing the document
+
+    private TokenBuffer tokens;
+    private CharSequence mappedDocument; // Source file mapped before reader is opened
+    private long sourceSize = -1;      // Source file size in bytes if known
+    private Set<String> usedNames; // Command and environment names of the document when config is watched
+    int streamChunkSize = TokenStream.DEFAULT_CHUNK_SIZE; // Changed by tests to make documents span many chunks
+    int pipelineBatchSize = ParsePipeline.UNITS_PER_BATCH; // Changed by tests to make documents span many batches
+
+    private static final int INITIAL_SEGMENT_DEPTH = 4;
+    private static final int WRITE_BUFFER_SIZE = 8192;
+    // Filter instances may be created for every file, buffers stay with processing threads
+    private static final ThreadLocal<SegmentBuffers> SEGMENT_BUFFERS = ThreadLocal.withInitial(SegmentBuffers::new);
 
     static {
         Core.registerMarker(new Highlighter());
     }
 
     public SimpleLatexFilter(final boolean useInternalConfig) throws IOException {
+        this.useInternalConfig = useInternalConfig;
         commandCenter = new CommandCenter(useInternalConfig);
-        parser = new Parser(commandCenter);
     }
 
     public SimpleLatexFilter() throws IOException {
-        commandCenter = new CommandCenter(false);
-        parser = new Parser(commandCenter);
+        this(false);
+    }
+
+    @Override
+    protected void processFile(final File inFile, final File outFile,
+                               final FilterContext fc) throws IOException, TranslationException {
+        InputMode inputMode = getEnumOption(processOptions, CONF_INPUT, InputMode.BUFFER);
+        if (inputMode == InputMode.MAPPED) {
+            String encoding = fc.getInEncoding();
+            mappedDocument = encoding == null ? null : readMappedFile(inFile, encoding);
+            if (mappedDocument == null) {
+                logLocalRB("LOG_MAPPED_INPUT_UNAVAILABLE", SimpleLatexFilter.class.getSimpleName(), inFile);
+            }
+        }
+        sourceSize = inFile.length();
+        usedNames = ConfigWatcher.isRunning() ? new HashSet<>() : null;
+        try {
+            super.processFile(inFile, outFile, fc);
+            if (usedNames != null) {
+                ConfigWatcher.recordNames(inFile, usedNames);
+            }
+        } finally {
+            mappedDocument = null;
+            sourceSize = -1;
+            usedNames = null;
+        }
     }
 
     @Override
     public void processFile(final BufferedReader reader, final BufferedWriter outfile,
                             final FilterContext fc) throws IOException {
         fileWriter = outfile;
-        sourceDocument = readBufferWithLinebreaks(reader);
+        buffers = SEGMENT_BUFFERS.get();
+        // Take current config, it stays the same for the whole document even if config is reloaded
+        commandCenter = new CommandCenter(useInternalConfig);
+        ParserMode parserMode = getEnumOption(processOptions, CONF_PARSER, ParserMode.STANDARD);
+        parser = createParser(parserMode);
         // Clean up document level structures
         resetState();
+        TokenizerMode tokenizerMode = getEnumOption(processOptions, CONF_TOKENIZER, TokenizerMode.LEXER);
+        InputMode inputMode = getEnumOption(processOptions, CONF_INPUT, InputMode.BUFFER);
+        if (inputMode == InputMode.STREAM) {
+            TokenStream stream = new TokenStream(reader, tokenizerMode, commandCenter.getConfigSymbols(),
+                    streamChunkSize);
+            sourceDocument = stream.getText();
+            // Written text is dropped, so tag contents are copied
+            tags = new TagAllocator(sourceDocument, true);
+            tokens = stream.getTokens();
+            // Tokenize and translate document chunk by chunk
+            translateStream(stream);
+            return;
+        }
+        CharSequence document;
+        if (mappedDocument != null) {
+            document = mappedDocument;
+        } else {
+            document = readBufferWithLinebreaks(reader, sourceSize);
+        }
+        sourceDocument = document;
+        tags = new TagAllocator(document, false);
         // Tokenize document
-        tokenIterator = tokenizeDocument(sourceDocument);
+        boolean parallel = getBooleanOption(processOptions, CONF_PARALLEL_TOKENIZER, false);
+        tokens = tokenizeDocument(document, tokenizerMode, parallel, commandCenter.getConfigSymbols());
+        if (usedNames != null) {
+            tokens.collectNames(usedNames);
+        }
+        // Parse sections concurrently before translation if requested
+        boolean parallelParser = getBooleanOption(processOptions, CONF_PARALLEL_PARSER, false);
+        if (parallelParser) {
+            try {
+                SectionParser.parse(tokens, parser, () -> createParser(parserMode));
+            } catch (RuntimeException e) {
+                // Parse sequentially to write out everything preceding the error as usual
+                parallelParser = false;
+                parser.reset();
+            }
+        }
+        // Parse in background while translating parsed part if requested
+        if (!parallelParser && getBooleanOption(processOptions, CONF_PIPELINE, false)) {
+            translatePipelined();
+            return;
+        }
         // Translate actual text
-        translateDocument();
+        translateTokens(tokens.cursor(), new IntList(), !parallelParser);
     }
 
 
     /**
-     * Translate list of tokens. Call self for external parts.
-     * @param tokens translatable tokens
-     * @return translated string ready to be written out
+     * Translate sequence of tokens including its external parts.
+     * External parts are translated depth first in a stack of reusable frames, one per nesting level,
+     * so nesting depth of document costs neither call stack nor new buffers.
+     * @param segment indices of translatable tokens
+     * @throws IOException on write error
      */
-    private String translateSegment(List<Token> tokens) {
+    private void translateSegment(IntList segment) throws IOException {
 
-        Token firstToken = tokens.get(0);
-        // Return early on STN content
-        if (tokens.size() == 1 && firstToken.getType() == TokenType.STN) {
-            return sourceDocument.substring(firstToken.getStart(), firstToken.getEnd());
+        int firstToken = segment.get(0);
+        // Write out STN content as is
+        if (isSpaceSegment(segment)) {
+            write(sourceDocument, tokens.getStart(firstToken), tokens.getEnd(firstToken));
+            return;
         }
 
-        ParserMark firstTokenMark = firstToken.getParserMark();
-        int baseExternality = firstTokenMark.getExternality();
-        boolean escape = firstTokenMark.doEscape();
-        List<String> envs = firstTokenMark.getEnvironments();
+        SegmentFrame frame = buffers.getFrame(0);
+        frame.segment.clear();
+        for (int i = 0; i < segment.size(); i++) {
+            frame.segment.add(segment.get(i));
+        }
+        beginSegment(frame, buffers.getFrame(1).segment);
+
+        int depth = 0;
+        while (true) {
+            SegmentFrame child = buffers.getFrame(depth + 1);
+            if (nextExternalPart(frame, child.segment)) {
+                if (isSpaceSegment(child.segment)) {
+                    int t = child.segment.get(0);
+                    frame.replacements.append(sourceDocument, tokens.getStart(t), tokens.getEnd(t));
+                    child.segment.clear();
+                } else {
+                    depth++;
+                    frame = child;
+                    beginSegment(frame, buffers.getFrame(depth + 1).segment);
+                }
+                continue;
+            }
+            // All tags of segment are replaced
+            if (depth == 0) {
+                StringBuilder output = buffers.output;
+                output.setLength(0);
+                restoreTags(frame, output);
+                write(output, 0, output.length());
+                return;
+            }
+            SegmentFrame parent = buffers.frames[--depth];
+            restoreTags(frame, parent.replacements);
+            frame.segment.clear();
+            frame = parent;
+        }
+    }
 
-        StringBuilder sb = new StringBuilder();
-        List<Token> tagCache = new ArrayList<>();
-        Map<String, List<Token>> tagToTokens = new HashMap<>();
+    private boolean isSpaceSegment(IntList segment) {
+        return segment.size() == 1 && tokens.getType(segment.get(0)) == TokenType.STN;
+    }
 
-        // Append dummy token to simplify code
-        int endOfSequence = tokens.get(tokens.size() - 1).getEnd();
-        tokens.add(Token.getDummyToken(endOfSequence, baseExternality));
+    /**
+     * Replace tag contents of segment with tags and fetch its translation.
+     * @param frame frame with segment tokens
+     * @param externalPart buffer collecting external parts of segment, cleared here
+     */
+    private void beginSegment(SegmentFrame frame, IntList externalPart) {
+        IntList segment = frame.segment;
+        int firstToken = segment.get(0);
+        int baseExternality = tokens.getExternality(firstToken);
+        boolean escape = tokens.doEscape(firstToken);
+        EnvironmentStack envs = tokens.getEnvironments(firstToken);
+
+        frame.reset(baseExternality, tokens.getStart(firstToken));
+        externalPart.clear();
+        StringBuilder sb = frame.text;
+        IntList tagTokens = frame.tagTokens;
+        int cacheStart = 0; // Tokens of current tag start here in tagTokens
 
         int firstTokenTagId = 0; // Only for tag generating segments
         Command firstTokenCommand = null;
-        for (Token t: tokens) {
-            ParserMark m = t.getParserMark();
-            int tagId = m.getTagId();
-            int externality = m.getExternality();
-            String commandName = t.getName();
-
-            boolean doFlushCache = !tagCache.isEmpty() && (
-                    (tagId == 0 && externality == baseExternality) || // Text or dummy token usually
+        for (int i = 0; i < segment.size(); i++) {
+            int t = segment.get(i);
+            int tagId = tokens.getTagId(t);
+            int externality = tokens.getExternality(t);
+            String commandName = tokens.getName(t);
+            boolean cacheEmpty = cacheStart == tagTokens.size();
+
+            boolean doFlushCache = !cacheEmpty && (
+                    (tagId == 0 && externality == baseExternality) || // Text token usually
                     (tagId > firstTokenTagId && firstTokenTagId > 0 && externality == baseExternality) || // New tag right inside parent one
                     (firstTokenTagId < 0 && tagId != firstTokenTagId) || // New tag begin/end after end of previous tag
                     (firstTokenCommand != null && firstTokenCommand.hasPlainArgument() && tagId == -firstTokenTagId) // Empty command with tag pair like \emph{}
@@ -162,176 +271,299 @@ public class SimpleLatexFilter extends AbstractFilter {
                     (externality > baseExternality);  // || // External parts of tag
 
             if (doFlushCache) {
-                String tag = requestTag(tagCache);
+                String tag = requestTag(tagTokens, cacheStart, tagTokens.size());
                 sb.append(tag);
-                tagToTokens.put(tag, tagCache);
-                tagCache = new ArrayList<>();
+                frame.addTag(tag, cacheStart, tagTokens.size());
+                cacheStart = tagTokens.size();
+                cacheEmpty = true;
                 firstTokenTagId = 0;
                 firstTokenCommand = null;
             }
 
             if (doAddToCache) {
-                if (tagCache.isEmpty()) {
+                if (cacheEmpty) {
                     firstTokenTagId = tagId;
                     if (commandName != null) {
-                        firstTokenCommand = commandCenter.getCommand(commandName);
+                        firstTokenCommand = commandCenter.getCommand(tokens, t);
                     }
                 }
-                tagCache.add(t);
+                tagTokens.add(t);
             } else {
-                sb.append(sourceDocument, t.getStart(), t.getEnd());
+                sb.append(sourceDocument, tokens.getStart(t), tokens.getEnd(t));
             }
         }
-
-        String comment = null;
-        if (!envs.isEmpty()) {
-            StringBuilder csb = new StringBuilder();
-            csb.append(RB.getString("ENVIRONMENTS")).append(": ").append(String.join(" > ", envs));
-            comment = csb.toString();
+        // Flush tag cache at the end of sequence
+        if (cacheStart < tagTokens.size()) {
+            String tag = requestTag(tagTokens, cacheStart, tagTokens.size());
+            sb.append(tag);
+            frame.addTag(tag, cacheStart, tagTokens.size());
         }
 
         // Fetch initial translation
-        String translation = escapeAndProcessEntry(sb.toString(), escape, comment);
-
-        // Reverse tags fetching external translations at the same time
-        Map<String, String> translatedTags = new HashMap<>();
-        for (Map.Entry<String, List<Token>> e: tagToTokens.entrySet()) {
-            String tag = e.getKey();
-            List<Token> tagTokens = e.getValue();
-            int endPosition = tagTokens.get(tagTokens.size() - 1).getEnd();
-            tagTokens.add(Token.getDummyToken(endPosition));
-
-            StringBuilder tsb = new StringBuilder();
-            List<Token> extTokens = new ArrayList<>();
+        frame.translation = escapeAndProcessEntry(sb.toString(), escape, envs.getComment());
+    }
 
+    /**
+     * Build tag replacements of segment from source tokens until an external part is met.
+     * Replacements are appended to frame buffer, an interrupted one continues on next call.
+     * @param frame segment frame
+     * @param externalPart buffer for tokens of external part, empty on call
+     * @return true if external part must be translated and appended to frame replacements before next call
+     */
+    private boolean nextExternalPart(SegmentFrame frame, IntList externalPart) {
+        while (frame.tagIndex < frame.tagCount) {
+            SegmentTag segmentTag = frame.tagOrder[frame.tagIndex];
+            if (frame.tokenIndex < 0) {
+                frame.tokenIndex = segmentTag.tokensStart;
+                segmentTag.replacementStart = frame.replacements.length();
+            }
             // Search for external parts in token sequence
-            for (Token t: tagTokens) {
-                ParserMark m = t.getParserMark();
-                if (m.getExternality() > baseExternality) {
-                    extTokens.add(t);  // This token belongs to external context
+            while (frame.tokenIndex < segmentTag.tokensEnd) {
+                int t = frame.tagTokens.get(frame.tokenIndex);
+                if (tokens.getExternality(t) > frame.baseExternality) {
+                    externalPart.add(t);  // This token belongs to external context
+                } else if (!externalPart.isEmpty()) {
+                    return true;
                 } else {
-                    if (!extTokens.isEmpty()) {
-                        tsb.append(translateSegment(extTokens)); // Recursive translation
-                        extTokens = new ArrayList<>();
-                    }
-                    tsb.append(sourceDocument, t.getStart(), t.getEnd());
+                    frame.replacements.append(sourceDocument, tokens.getStart(t), tokens.getEnd(t));
                 }
+                frame.tokenIndex++;
+            }
+            if (!externalPart.isEmpty()) {
+                return true;
             }
-            translatedTags.put(tag, tsb.toString());
+            segmentTag.replacementEnd = frame.replacements.length();
+            frame.tagIndex++;
+            frame.tokenIndex = -1;
         }
+        return false;
+    }
 
-        // Reconstruct final translation
-        for (Map.Entry<String, String> e: translatedTags.entrySet()) {
-            String tag = e.getKey();
-            String replacement = e.getValue();
-            translation = translation.replace(tag, replacement);
+    /**
+     * Replace tags with their contents in a single scan of translation.
+     * Tags missing in translation or occurring more times than in source are logged.
+     * @param frame segment frame with translation and tag replacements
+     * @param sb buffer for translation with tag contents
+     */
+    private static void restoreTags(SegmentFrame frame, StringBuilder sb) {
+        String translation = frame.translation;
+        int length = translation.length();
+        if (frame.tagCount == 0) {
+            sb.append(translation);
+            return;
+        }
+        int copied = 0;
+        int i = translation.indexOf('<');
+        while (i >= 0) {
+            SegmentTag segmentTag = null;
+            int limit = Math.min(length, i + frame.maxTagLength);
+            int end = i + 1;
+            while (end < limit && translation.charAt(end) != '>' && translation.charAt(end) != '<') {
+                end++;
+            }
+            if (end < limit && translation.charAt(end) == '>') {
+                segmentTag = frame.tagMap.get(translation.substring(i, end + 1));
+            }
+            if (segmentTag == null) {
+                i = translation.indexOf('<', i + 1);
+                continue;
+            }
+            sb.append(translation, copied, i)
+                    .append(frame.replacements, segmentTag.replacementStart, segmentTag.replacementEnd);
+            segmentTag.translationCount++;
+            copied = end + 1;
+            i = translation.indexOf('<', copied);
+        }
+        sb.append(translation, copied, length);
+
+        String pluginClassName = SimpleLatexFilter.class.getSimpleName();
+        for (int t = 0; t < frame.tagCount; t++) {
+            SegmentTag segmentTag = frame.tagOrder[t];
+            if (segmentTag.translationCount == 0) {
+                logLocalRB("LOG_TAG_MISSING", pluginClassName, segmentTag.tag, frame.position);
+            } else if (segmentTag.translationCount > segmentTag.sourceCount) {
+                logLocalRB("LOG_TAG_DUPLICATED", pluginClassName, segmentTag.tag, frame.position);
+            }
         }
-
-        return translation;
     }
 
-    private String requestTag(List<Token> tokens) {
-        Token firstToken = tokens.get(0);
-        String commandName = firstToken.getName();
-        Command command = commandCenter.getCommand(commandName);
-        ParserMark mark = firstToken.getParserMark();
-        int tagId = mark.getTagId();
+    /**
+     * @param tagTokens token list
+     * @param from index of first tag token in list
+     * @param to index after last tag token in list
+     * @return tag for tokens
+     */
+    private String requestTag(IntList tagTokens, int from, int to) {
+        int firstToken = tagTokens.get(from);
+        String commandName = tokens.getName(firstToken);
+        Command command = commandCenter.getCommand(tokens, firstToken);
+        int tagId = tokens.getTagId(firstToken);
         String tag;
 
-        Token lastToken = tokens.get(tokens.size() - 1);
-        String content = sourceDocument.substring(firstToken.getStart(), lastToken.getEnd());
+        int start = tokens.getStart(firstToken);
+        int end = tokens.getEnd(tagTokens.get(to - 1));
 
         boolean noPlainArguments = command == null || !command.hasPlainArgument();
 
         // Avoid creating closed tokens for virtual group command
-        if (noPlainArguments || (tokens.size() == 1 && !Objects.equals(commandName, GROUP_COMMAND_NAME))) {
+        if (noPlainArguments || (to - from == 1 && !Objects.equals(commandName, GROUP_COMMAND_NAME))) {
             if (tagId > 0) { // Closed tag case
-                tag = commandCenter.getFirstOrClosedTag(content, command, tagId, true);
+                tag = tags.getFirstOrClosedTag(start, end, command, tagId, true);
             } else if (tagId < 0) { // Last tag case
-                tag = commandCenter.getLastTag(-tagId);
+                tag = tags.getLastTag(-tagId);
             } else {
-                String message = "Failed to create tag from string `" + content + "` at position " +
-                        firstToken.getStart() + ".\nIt can be a bug or a bad document.";
+                String message = "Failed to create tag from string `" + sourceDocument.subSequence(start, end) +
+                        "` at position " + start + ".\nIt can be a bug or a bad document.";
                 throw new SimpleLatexFilterException(message);
             }
         } else { // First tag case
-            tag = commandCenter.getFirstOrClosedTag(content, command, tagId, false);
+            tag = tags.getFirstOrClosedTag(start, end, command, tagId, false);
         }
         return tag;
     }
 
-    private void translateDocument() throws IOException {
-        Token token;
-        List<Token> translationCache = new ArrayList<>();
+    private void translateStream(TokenStream stream) throws IOException {
+        TokenBuffer.Cursor cursor = tokens.cursor();
+        IntList translationCache = new IntList();
+
+        while (stream.advance()) {
+            if (usedNames != null) {
+                tokens.collectNames(usedNames);
+            }
+            translateTokens(cursor, translationCache, true);
+            // Drop written text and tokens unless segment continues in the next chunk
+            if (translationCache.isEmpty()) {
+                stream.release();
+                cursor = tokens.cursor();
+            }
+        }
+    }
 
-        while(tokenIterator.hasNext()) {
-            token = tokenIterator.next();
-            parser.processToken(token);
-            ParserMark mark = token.getParserMark();
-            if (mark.isTranslatable()) {
+    /**
+     * Parse available tokens writing out translation.
+     * @param cursor token cursor
+     * @param translationCache translatable tokens of unfinished segment
+     * @param parse parse tokens, false if they are parsed already
+     * @throws IOException on write error
+     */
+    private void translateTokens(TokenBuffer.Cursor cursor, IntList translationCache, boolean parse)
+            throws IOException {
+        while(cursor.hasNext()) {
+            int token = cursor.next();
+            if (parse) {
+                parser.processToken(cursor);
+            }
+            if (cursor.isTranslatable()) {
                 translationCache.add(token);
                 continue;
             }
 
             // Flush translation cache
             if (!translationCache.isEmpty()) {
-                String translation = translateSegment(translationCache);
-                fileWriter.write(translation);
+                translateSegment(translationCache);
                 translationCache.clear();
             }
 
-            String tokenBody = sourceDocument.substring(token.getStart(), token.getEnd());
-            fileWriter.write(tokenBody);
+            write(sourceDocument, cursor.getStart(), cursor.getEnd());
+        }
+    }
+
+    /**
+     * Translate units of tokens parsed in background thread writing out translation.
+     * @throws IOException on write error
+     */
+    private void translatePipelined() throws IOException {
+        IntList segment = new IntList();
+        try (ParsePipeline pipeline = new ParsePipeline(tokens, parser, pipelineBatchSize)) {
+            while (pipeline.next()) {
+                int plainStart = pipeline.getPlainStart();
+                if (pipeline.getSegmentStart() < plainStart) {
+                    segment.clear();
+                    for (int t = pipeline.getSegmentStart(); t < plainStart; t++) {
+                        segment.add(t);
+                    }
+                    translateSegment(segment);
+                }
+                for (int t = plainStart; t < pipeline.getEnd(); t++) {
+                    write(sourceDocument, tokens.getStart(t), tokens.getEnd(t));
+                }
+            }
+        }
+    }
+
+    /**
+     * Write text range without creating strings.
+     * @param text source document or translation buffer
+     * @param start range start
+     * @param end range end (exclusive)
+     * @throws IOException on write error
+     */
+    private void write(CharSequence text, int start, int end) throws IOException {
+        if (text instanceof String) {
+            fileWriter.write((String) text, start, end - start);
+        } else if (text instanceof TextWindow) {
+            ((TextWindow) text).write(fileWriter, start, end);
+        } else if (text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+            CharBuffer buffer = (CharBuffer) text;
+            fileWriter.write(buffer.array(), buffer.arrayOffset() + buffer.position() + start, end - start);
+        } else if (text instanceof StringBuilder) {
+            StringBuilder sb = (StringBuilder) text;
+            char[] writeBuffer = buffers.writeBuffer;
+            for (int from = start; from < end; from += writeBuffer.length) {
+                int to = Math.min(end, from + writeBuffer.length);
+                sb.getChars(from, to, writeBuffer, 0);
+                fileWriter.write(writeBuffer, 0, to - from);
+            }
+        } else if (text instanceof MappedText) {
+            MappedText mapped = (MappedText) text;
+            char[] writeBuffer = buffers.writeBuffer;
+            for (int from = start; from < end; from += writeBuffer.length) {
+                int to = Math.min(end, from + writeBuffer.length);
+                mapped.getChars(from, to, writeBuffer, 0);
+                fileWriter.write(writeBuffer, 0, to - from);
+            }
+        } else {
+            fileWriter.append(text, start, end);
         }
     }
 
     private String escapeAndProcessEntry(String content, boolean escape, String comment) {
         // Unescape special characters
         if (escape) {
-            for (Map.Entry<Pattern, String> e: UNESCAPE_MAP.entrySet()) {
-                Pattern pattern = e.getKey();
-                String replacement = e.getValue();
-                Matcher matcher = pattern.matcher(content);
-                content = matcher.replaceAll(replacement);
-            }
+            content = escaper.unescape(content);
         }
 
         content = trimAndProcessEntry(content, comment);
         // Escape special characters
         if (escape) {
-            for (Map.Entry<Pattern, String> e: ESCAPE_MAP.entrySet()) {
-                Pattern pattern = e.getKey();
-                String replacement = e.getValue();
-                Matcher matcher = pattern.matcher(content);
-                content = matcher.replaceAll(replacement);
-            }
+            content = escaper.escape(content);
         }
         return content;
     }
 
     private String trimAndProcessEntry(final String content, final String comment) {
-        int headPad, tailPad;
-
-        Matcher matcher = STN_HEAD.matcher(content);
-        if (matcher.find()) {
-            headPad = matcher.end();
-        } else {
-            headPad = 0;
+        int length = content.length();
+        int headPad = 0;
+        int tailPad = length;
+        while (headPad < tailPad && Lexer.isWhitespace(content.charAt(headPad))) {
+            headPad++;
         }
-
-        matcher = STN_TAIL.matcher(content);
-        if (matcher.find()) {
-            tailPad = matcher.start();
-        } else {
-            tailPad = content.length();
+        while (tailPad > headPad && Lexer.isWhitespace(content.charAt(tailPad - 1))) {
+            tailPad--;
+        }
+        if (headPad == 0 && tailPad == length) {
+            return processEntry(content, comment);
         }
 
         return content.substring(0, headPad) + processEntry(content.substring(headPad, tailPad), comment) +
             content.substring(tailPad);
     }
 
+    private DocumentParser createParser(ParserMode mode) {
+        return mode == ParserMode.COMPILED ? new CompiledParser(commandCenter) : new Parser(commandCenter);
+    }
+
     private void resetState() {
-        commandCenter.reset();
         parser.reset();
     }
 
@@ -352,9 +584,15 @@ public class SimpleLatexFilter extends AbstractFilter {
     public static void loadPlugins() {
         Core.registerFilterClass(SimpleLatexFilter.class);
         CoreEvents.registerApplicationEventListener(generateIApplicationEventListener());
+        CoreEvents.registerProjectChangeListener(eventType -> {
+            if (eventType == IProjectEventListener.PROJECT_CHANGE_TYPE.CLOSE) {
+                ConfigWatcher.forgetDocuments();
+            }
+        });
     }
 
     public static void unloadPlugins() {
+        ConfigWatcher.stop();
     }
 
     @Override
@@ -406,4 +644,95 @@ public class SimpleLatexFilter extends AbstractFilter {
             return null;
         }
     }
+
+    /**
+     * Tag of a segment being translated.
+     */
+    private static final class SegmentTag {
+        String tag;
+        int tokensStart;        // Range of source tokens replaced by tag in frame token list
+        int tokensEnd;
+        int replacementStart;   // Range of source text with translated external parts in frame replacements
+        int replacementEnd;
+        int sourceCount;        // Occurrences in source segment
+        int translationCount;   // Occurrences in translation
+    }
+
+    /**
+     * Reusable buffers of a segment being translated at some nesting level of external parts.
+     */
+    private static final class SegmentFrame {
+
+        final IntList segment = new IntList();
+        final StringBuilder text = new StringBuilder();         // Source text with tags
+        final IntList tagTokens = new IntList();                // Tokens replaced by tags
+        final StringBuilder replacements = new StringBuilder(); // Replacements of all tags
+        final Map<String, SegmentTag> tagMap = new HashMap<>();
+        SegmentTag[] tagOrder = new SegmentTag[8];              // Tags in order of first occurrence, pooled past count
+        int tagCount;
+        int tagIndex;         // Tag being replaced
+        int tokenIndex;       // Next token of tag being replaced or -1
+        int baseExternality;
+        int position;         // Segment position in source for log messages
+        int maxTagLength;
+        String translation;
+
+        void reset(int baseExternality, int position) {
+            this.baseExternality = baseExternality;
+            this.position = position;
+            text.setLength(0);
+            tagTokens.clear();
+            replacements.setLength(0);
+            tagMap.clear();
+            tagCount = 0;
+            tagIndex = 0;
+            tokenIndex = -1;
+            maxTagLength = 0;
+            translation = null;
+        }
+
+        void addTag(String tag, int tokensStart, int tokensEnd) {
+            SegmentTag segmentTag = tagMap.get(tag);
+            if (segmentTag == null) {
+                if (tagCount == tagOrder.length) {
+                    tagOrder = Arrays.copyOf(tagOrder, tagCount * 2);
+                }
+                segmentTag = tagOrder[tagCount];
+                if (segmentTag == null) {
+                    segmentTag = new SegmentTag();
+                    tagOrder[tagCount] = segmentTag;
+                }
+                tagCount++;
+                segmentTag.tag = tag;
+                segmentTag.sourceCount = 0;
+                segmentTag.translationCount = 0;
+                tagMap.put(tag, segmentTag);
+                maxTagLength = Math.max(maxTagLength, tag.length());
+            }
+            // Equal contents share a tag, tokens of any of them do
+            segmentTag.tokensStart = tokensStart;
+            segmentTag.tokensEnd = tokensEnd;
+            segmentTag.sourceCount++;
+        }
+    }
+
+    /**
+     * Reusable buffers for translating segments, one set per thread.
+     */
+    private static final class SegmentBuffers {
+
+        SegmentFrame[] frames = new SegmentFrame[INITIAL_SEGMENT_DEPTH]; // Root segment at 0
+        final StringBuilder output = new StringBuilder();                 // Translation of root segment
+        final char[] writeBuffer = new char[WRITE_BUFFER_SIZE];
+
+        SegmentFrame getFrame(int depth) {
+            if (depth == frames.length) {
+                frames = Arrays.copyOf(frames, depth * 2);
+            }
+            if (frames[depth] == null) {
+                frames[depth] = new SegmentFrame();
+            }
+            return frames[depth];
+        }
+    }
 }
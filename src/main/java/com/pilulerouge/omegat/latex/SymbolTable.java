@@ -0,0 +1,226 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.Arrays;
+
+/**
+ * Command and environment names mapped to small int IDs.
+ * Names are looked up directly by text slices, so known names never cause String allocation.
+ * A table may extend a parent table which must not change afterwards: config table holds
+ * commands and token buffers keep names unknown to config in their own tables on top of it.
+ * Hash is the same as of String, so String lookups use cached hash codes.
+ */
+final class SymbolTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final SymbolTable parent;
+    private final int base;      // Number of parent symbols, own IDs start from it
+    private String[] names;
+    private Command[] commands;
+    private int[] flags;         // Environment flags
+    private int[] hashes;
+    private int[] slots;         // Open addressing table of own symbol index plus one
+    private int size;
+
+    SymbolTable() {
+        this(null);
+    }
+
+    SymbolTable(SymbolTable parent) {
+        this.parent = parent;
+        base = parent == null ? 0 : parent.size();
+        names = new String[INITIAL_CAPACITY];
+        commands = new Command[INITIAL_CAPACITY];
+        flags = new int[INITIAL_CAPACITY];
+        hashes = new int[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY * 2];
+        size = 0;
+    }
+
+    int size() {
+        return base + size;
+    }
+
+    /**
+     * Find symbol by text slice.
+     * @param text text containing name
+     * @param start name start
+     * @param end name end (exclusive)
+     * @return symbol ID or -1
+     */
+    int find(CharSequence text, int start, int end) {
+        return find(text, start, end, hash(text, start, end));
+    }
+
+    /**
+     * Find symbol by text slice adding it if missing.
+     * @param text text containing name
+     * @param start name start
+     * @param end name end (exclusive)
+     * @return symbol ID
+     */
+    int intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int id = find(text, start, end, hash);
+        if (id < 0) {
+            id = addOwn(text.subSequence(start, end).toString(), hash);
+        }
+        return id;
+    }
+
+    /**
+     * Find symbol by name adding it if missing.
+     * @param name symbol name
+     * @return symbol ID
+     */
+    int intern(String name) {
+        int hash = name.hashCode();
+        int id = find(name, 0, name.length(), hash);
+        if (id < 0) {
+            id = addOwn(name, hash);
+        }
+        return id;
+    }
+
+    /**
+     * Add symbol for command.
+     * @param name command name
+     * @param command command
+     */
+    void add(String name, Command command) {
+        int id = intern(name);
+        if (id >= base) {
+            commands[id - base] = command;
+        }
+    }
+
+    /**
+     * Add flags to symbol.
+     * @param name symbol name
+     * @param symbolFlags flags to set
+     */
+    void addFlags(String name, int symbolFlags) {
+        int id = intern(name);
+        if (id >= base) {
+            flags[id - base] |= symbolFlags;
+        }
+    }
+
+    String getName(int id) {
+        return id < base ? parent.getName(id) : names[id - base];
+    }
+
+    /**
+     * @param id symbol ID or -1
+     * @return command of symbol or null
+     */
+    Command getCommand(int id) {
+        if (id < 0) {
+            return null;
+        }
+        return id < base ? parent.getCommand(id) : commands[id - base];
+    }
+
+    /**
+     * @param id symbol ID or -1
+     * @return flags of symbol
+     */
+    int getFlags(int id) {
+        if (id < 0) {
+            return 0;
+        }
+        return id < base ? parent.getFlags(id) : flags[id - base];
+    }
+
+    private int find(CharSequence text, int start, int end, int hash) {
+        if (parent != null) {
+            int id = parent.find(text, start, end, hash);
+            if (id >= 0 && id < base) {
+                return id;
+            }
+        }
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (hashes[index] == hash && equals(names[index], text, start, end)) {
+                return base + index;
+            }
+        }
+        return -1;
+    }
+
+    private int addOwn(String name, int hash) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            commands = Arrays.copyOf(commands, size * 2);
+            flags = Arrays.copyOf(flags, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+            rehash(slots.length * 2);
+        }
+        names[size] = name;
+        hashes[size] = hash;
+        insert(size);
+        return base + size++;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int index = 0; index < size; index++) {
+            insert(index);
+        }
+    }
+
+    private void insert(int index) {
+        int mask = slots.length - 1;
+        int slot = mix(hashes[index]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean equals(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,274 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * OmegaT tags given out while processing one document.
+ * Same source content gets the same tag, tags with numbers are numbered by tag name.
+ * Contents are kept as source ranges keyed by 64-bit hash, equal hashes are verified by comparing the ranges.
+ */
+final class TagAllocator {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final CharSequence source;
+    private final boolean keepContent; // Source text is dropped while processing, verify with copies
+
+    // Distinct tag contents
+    private long[] hashes;
+    private int[] starts;
+    private int[] ends;
+    private String[] contents;      // Content copies, only if source is dropped
+    private String[] firstOrClosedTags;
+    private String[] lastTagsOfContent; // Null for closed tags
+    private int size;
+    private int[] slots;            // Open addressing table of content index plus one
+
+    // Tag ID to last tag
+    private int[] lastTagIds;
+    private String[] lastTags;
+    private boolean[] lastTagUsed;
+    private int lastTagCount;
+
+    private final Map<String, TagName> tagNames = new HashMap<>();
+
+    /**
+     * @param source document text tag contents are taken from
+     * @param keepContent true if text before a position may become unavailable
+     */
+    TagAllocator(CharSequence source, boolean keepContent) {
+        this.source = source;
+        this.keepContent = keepContent;
+        hashes = new long[INITIAL_CAPACITY];
+        starts = new int[INITIAL_CAPACITY];
+        ends = new int[INITIAL_CAPACITY];
+        contents = keepContent ? new String[INITIAL_CAPACITY] : null;
+        firstOrClosedTags = new String[INITIAL_CAPACITY];
+        lastTagsOfContent = new String[INITIAL_CAPACITY];
+        slots = new int[INITIAL_CAPACITY * 2];
+        lastTagIds = new int[INITIAL_CAPACITY * 2];
+        lastTags = new String[INITIAL_CAPACITY * 2];
+        lastTagUsed = new boolean[INITIAL_CAPACITY * 2];
+    }
+
+    /**
+     * Get last tag created earlier with a first tag of this pair.
+     * @param tagId tag id from parser mark
+     * @return tag string
+     */
+    String getLastTag(int tagId) {
+        int mask = lastTagIds.length - 1;
+        for (int slot = mix(tagId) & mask; lastTagUsed[slot]; slot = (slot + 1) & mask) {
+            if (lastTagIds[slot] == tagId) {
+                return lastTags[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get closed or first tag and store last tag for later request.
+     * @param start content start in source
+     * @param end content end in source (exclusive)
+     * @param command command
+     * @param tagId tag id from parser mark
+     * @param closed request closed tag
+     * @return tag string
+     */
+    String getFirstOrClosedTag(int start, int end, Command command, int tagId, boolean closed) {
+        long hash = hash(start, end);
+        int index = find(hash, start, end);
+        if (index >= 0) {
+            if (!closed) {
+                putLastTag(tagId, lastTagsOfContent[index]);
+            }
+            return firstOrClosedTags[index];
+        }
+
+        TagName tagName = tagNames.computeIfAbsent(command.getTag(), TagName::new);
+        String firstOrClosedTag, lastTag;
+        if (command.hasNumberedTags()) {
+            String numberedName = tagName.name + ++tagName.counter;
+            firstOrClosedTag = closed ? "<" + numberedName + "/>" : "<" + numberedName + ">";
+            lastTag = closed ? null : "</" + numberedName + ">";
+        } else {
+            firstOrClosedTag = closed ? tagName.closedTag : tagName.firstTag;
+            lastTag = closed ? null : tagName.lastTag;
+        }
+        add(hash, start, end, firstOrClosedTag, lastTag);
+        if (!closed) {
+            putLastTag(tagId, lastTag);
+        }
+        return firstOrClosedTag;
+    }
+
+    private int find(long hash, int start, int end) {
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (hashes[index] == hash && sameContent(index, start, end)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean sameContent(int index, int start, int end) {
+        int length = end - start;
+        if (ends[index] - starts[index] != length) {
+            return false;
+        }
+        if (keepContent) {
+            String content = contents[index];
+            for (int i = 0; i < length; i++) {
+                if (content.charAt(i) != source.charAt(start + i)) {
+                    return false;
+                }
+            }
+        } else {
+            int otherStart = starts[index];
+            for (int i = 0; i < length; i++) {
+                if (source.charAt(otherStart + i) != source.charAt(start + i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void add(long hash, int start, int end, String firstOrClosedTag, String lastTag) {
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            if (keepContent) {
+                contents = Arrays.copyOf(contents, capacity);
+            }
+            firstOrClosedTags = Arrays.copyOf(firstOrClosedTags, capacity);
+            lastTagsOfContent = Arrays.copyOf(lastTagsOfContent, capacity);
+            slots = new int[capacity * 2];
+            for (int i = 0; i < size; i++) {
+                insert(i);
+            }
+        }
+        hashes[size] = hash;
+        starts[size] = start;
+        ends[size] = end;
+        if (keepContent) {
+            contents[size] = source.subSequence(start, end).toString();
+        }
+        firstOrClosedTags[size] = firstOrClosedTag;
+        lastTagsOfContent[size] = lastTag;
+        insert(size++);
+    }
+
+    private void insert(int index) {
+        int mask = slots.length - 1;
+        int slot = mix(hashes[index]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private void putLastTag(int tagId, String lastTag) {
+        int mask = lastTagIds.length - 1;
+        int slot = mix(tagId) & mask;
+        while (lastTagUsed[slot]) {
+            if (lastTagIds[slot] == tagId) {
+                lastTags[slot] = lastTag;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        lastTagIds[slot] = tagId;
+        lastTags[slot] = lastTag;
+        lastTagUsed[slot] = true;
+        if (++lastTagCount * 2 > lastTagIds.length) {
+            rehashLastTags();
+        }
+    }
+
+    private void rehashLastTags() {
+        int[] oldIds = lastTagIds;
+        String[] oldTags = lastTags;
+        boolean[] oldUsed = lastTagUsed;
+        lastTagIds = new int[oldIds.length * 2];
+        lastTags = new String[oldIds.length * 2];
+        lastTagUsed = new boolean[oldIds.length * 2];
+        int mask = lastTagIds.length - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldUsed[i]) {
+                int slot = mix(oldIds[i]) & mask;
+                while (lastTagUsed[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                lastTagIds[slot] = oldIds[i];
+                lastTags[slot] = oldTags[i];
+                lastTagUsed[slot] = true;
+            }
+        }
+    }
+
+    private long hash(int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ source.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int mix(long hash) {
+        int h = (int) (hash ^ (hash >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Counter and formatted tags of one tag name. Formatted tags are shared by contents of unnumbered tags.
+     */
+    private static final class TagName {
+        final String name;
+        final String firstTag;
+        final String lastTag;
+        final String closedTag;
+        int counter;
+
+        TagName(String name) {
+            this.name = name;
+            firstTag = "<" + name + ">";
+            lastTag = "</" + name + ">";
+            closedTag = "<" + name + "/>";
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Sliding window over document text read from a stream.
+ * Characters are addressed by absolute document position, text before window start is not available
+ * and reading it throws {@link IndexOutOfBoundsException}.
+ * Length of the sequence is the absolute position of the last read character plus one.
+ */
+final class TextWindow implements CharSequence {
+
+    private char[] data;
+    private int base;   // Absolute position of data[0]
+    private int count;  // Number of characters in window
+
+    TextWindow(int capacity) {
+        data = new char[capacity];
+        base = 0;
+        count = 0;
+    }
+
+    /**
+     * Read more characters from reader.
+     * @param reader source reader
+     * @param amount maximum number of characters to read
+     * @return false if end of stream is reached
+     * @throws IOException on read error
+     */
+    boolean fill(Reader reader, int amount) throws IOException {
+        if (count + amount > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, count + amount));
+        }
+        int read = reader.read(data, count, amount);
+        if (read < 0) {
+            return false;
+        }
+        count += read;
+        return true;
+    }
+
+    /**
+     * Drop text before position.
+     * @param position absolute position of new window start
+     */
+    void discard(int position) {
+        int shift = position - base;
+        if (shift <= 0) {
+            return;
+        }
+        System.arraycopy(data, shift, data, 0, count - shift);
+        count -= shift;
+        base = position;
+    }
+
+    /**
+     * Write text range directly from window.
+     * @param writer target writer
+     * @param start absolute range start
+     * @param end absolute range end (exclusive)
+     * @throws IOException on write error
+     */
+    void write(Writer writer, int start, int end) throws IOException {
+        writer.write(data, start - base, end - start);
+    }
+
+    @Override
+    public int length() {
+        return base + count;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < base || index >= base + count) {
+            throw outOfWindow(index);
+        }
+        return data[index - base];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < base || end > base + count || start > end) {
+            throw outOfWindow(start < base ? start : end);
+        }
+        return new String(data, start - base, end - start);
+    }
+
+    /**
+     * @return whole text, available only until some of it is discarded
+     * @throws IllegalStateException if text is discarded
+     */
+    @Override
+    public String toString() {
+        if (base > 0) {
+            throw new IllegalStateException("Text before position " + base + " is discarded");
+        }
+        return new String(data, 0, count);
+    }
+
+    private IndexOutOfBoundsException outOfWindow(int index) {
+        if (index < base) {
+            return new IndexOutOfBoundsException("Position " + index + " is discarded, text starts at " + base);
+        }
+        return new IndexOutOfBoundsException("Position " + index + " is not read yet, text ends at " +
+                (base + count));
+    }
+}
@@ -0,0 +1,362 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Document tokens stored in parallel primitive arrays and addressed by index.
+ * Token names are symbol IDs from a table on top of config symbols. Parser mark is packed into a single long:
+ * tag ID in lower 32 bits, externality in next 16 bits and flag bits above them.
+ */
+public final class TokenBuffer {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private static final int EXTERNALITY_SHIFT = 32;
+    private static final long EXTERNALITY_MASK = 0xFFFFL;
+    private static final long TRANSLATABLE_BIT = 1L << 48;
+    private static final long ESCAPE_BIT = 1L << 49;
+
+    private int[] starts;
+    private int[] ends;
+    private byte[] types;
+    private int[] nameIds;       // Symbol ID or -1
+    private long[] marks;        // Packed parser marks
+    private EnvironmentStack[] environments; // Open environments, nodes are shared between tokens
+    private int size;
+
+    private final SymbolTable symbols;
+
+    TokenBuffer(SymbolTable symbols) {
+        this(INITIAL_CAPACITY, symbols);
+    }
+
+    /**
+     * @param capacity initial capacity
+     * @param symbols symbol table for token names, may be shared with other buffers of the same thread
+     */
+    TokenBuffer(int capacity, SymbolTable symbols) {
+        capacity = Math.max(capacity, 1);
+        starts = new int[capacity];
+        ends = new int[capacity];
+        types = new byte[capacity];
+        nameIds = new int[capacity];
+        marks = new long[capacity];
+        environments = new EnvironmentStack[capacity];
+        size = 0;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Append token.
+     * @param type token type
+     * @param start token start
+     * @param end token end (exclusive)
+     * @param name command or environment name or null
+     * @return token index
+     */
+    int add(TokenType type, int start, int end, String name) {
+        return add(type, start, end, name == null ? -1 : symbols.intern(name));
+    }
+
+    /**
+     * Append token.
+     * @param type token type
+     * @param start token start
+     * @param end token end (exclusive)
+     * @param nameId symbol ID of name from this buffer table or -1
+     * @return token index
+     */
+    int add(TokenType type, int start, int end, int nameId) {
+        ensureCapacity(size + 1);
+        starts[size] = start;
+        ends[size] = end;
+        types[size] = (byte) type.ordinal();
+        nameIds[size] = nameId;
+        marks[size] = 0;
+        environments[size] = null;
+        return size++;
+    }
+
+    /**
+     * Append tokens of another buffer without parser marks.
+     * @param other source buffer
+     */
+    void addAll(TokenBuffer other) {
+        int[] nameIdMap = new int[other.symbols.size()];
+        for (int i = 0; i < nameIdMap.length; i++) {
+            nameIdMap[i] = other.symbols == symbols ? i : -1;
+        }
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < other.size; i++) {
+            starts[size] = other.starts[i];
+            ends[size] = other.ends[i];
+            types[size] = other.types[i];
+            int nameId = other.nameIds[i];
+            if (nameId >= 0 && nameIdMap[nameId] < 0) {
+                nameIdMap[nameId] = symbols.intern(other.symbols.getName(nameId));
+            }
+            nameIds[size] = nameId < 0 ? -1 : nameIdMap[nameId];
+            marks[size] = 0;
+            environments[size] = null;
+            size++;
+        }
+    }
+
+    /**
+     * Remove all tokens keeping allocated storage and name table.
+     */
+    void clear() {
+        Arrays.fill(environments, 0, size, null);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    public TokenType getType(int index) {
+        return TOKEN_TYPES[types[index]];
+    }
+
+    public String getName(int index) {
+        int nameId = nameIds[index];
+        return nameId < 0 ? null : symbols.getName(nameId);
+    }
+
+    int getNameId(int index) {
+        return nameIds[index];
+    }
+
+    /**
+     * @param index token index
+     * @return config command of token name or null
+     */
+    Command getCommand(int index) {
+        return symbols.getCommand(nameIds[index]);
+    }
+
+    /**
+     * @param index token index
+     * @return config flags of token name
+     */
+    int getNameFlags(int index) {
+        return symbols.getFlags(nameIds[index]);
+    }
+
+    SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Intern name from text slice.
+     * @return symbol ID to use with {@link #add(TokenType, int, int, int)}
+     */
+    int internName(CharSequence text, int start, int end) {
+        return symbols.intern(text, start, end);
+    }
+
+    /**
+     * Add names of all tokens to set.
+     * @param names set receiving names
+     */
+    void collectNames(Set<String> names) {
+        boolean[] seen = new boolean[symbols.size()];
+        for (int i = 0; i < size; i++) {
+            int nameId = nameIds[i];
+            if (nameId >= 0 && !seen[nameId]) {
+                seen[nameId] = true;
+                names.add(symbols.getName(nameId));
+            }
+        }
+    }
+
+    /**
+     * @return copy of token name symbols to restore names changed by parser
+     */
+    int[] copyNameIds() {
+        return Arrays.copyOf(nameIds, size);
+    }
+
+    /**
+     * Restore token names from a copy.
+     * @param nameIdCopy copy of name symbols
+     * @param from first token index
+     * @param to end token index (exclusive)
+     */
+    void restoreNameIds(int[] nameIdCopy, int from, int to) {
+        System.arraycopy(nameIdCopy, from, nameIds, from, to - from);
+    }
+
+    /**
+     * Parser might decide to change token command name
+     * @param index token index
+     * @param name new token name
+     */
+    void setName(int index, String name) {
+        nameIds[index] = name == null ? -1 : symbols.intern(name);
+    }
+
+    void mark(int index, boolean translatable, int externality, int tagId, boolean escape,
+              EnvironmentStack environmentStack) {
+        long mark = (tagId & 0xFFFFFFFFL) | ((externality & EXTERNALITY_MASK) << EXTERNALITY_SHIFT);
+        if (translatable) {
+            mark |= TRANSLATABLE_BIT;
+        }
+        if (escape) {
+            mark |= ESCAPE_BIT;
+        }
+        marks[index] = mark;
+        environments[index] = environmentStack;
+    }
+
+    public boolean isTranslatable(int index) {
+        return (marks[index] & TRANSLATABLE_BIT) != 0;
+    }
+
+    public boolean doEscape(int index) {
+        return (marks[index] & ESCAPE_BIT) != 0;
+    }
+
+    public int getExternality(int index) {
+        return (int) ((marks[index] >>> EXTERNALITY_SHIFT) & EXTERNALITY_MASK);
+    }
+
+    public int getTagId(int index) {
+        return (int) marks[index];
+    }
+
+    EnvironmentStack getEnvironments(int index) {
+        return environments[index];
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @param index index of the first token to visit
+     * @return cursor positioned before token
+     */
+    Cursor cursor(int index) {
+        Cursor cursor = new Cursor();
+        cursor.index = index - 1;
+        return cursor;
+    }
+
+    /**
+     * Move tag IDs of marked tokens by offset keeping their sign.
+     * @param from first token index
+     * @param to end token index (exclusive)
+     * @param offset offset to add to absolute tag ID values
+     */
+    void shiftTagIds(int from, int to, int offset) {
+        for (int index = from; index < to; index++) {
+            int tagId = (int) marks[index];
+            if (tagId != 0) {
+                tagId += tagId > 0 ? offset : -offset;
+                marks[index] = (marks[index] & ~0xFFFFFFFFL) | (tagId & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= starts.length) {
+            return;
+        }
+        capacity = Math.max(capacity, starts.length * 2);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        types = Arrays.copyOf(types, capacity);
+        nameIds = Arrays.copyOf(nameIds, capacity);
+        marks = Arrays.copyOf(marks, capacity);
+        environments = Arrays.copyOf(environments, capacity);
+    }
+
+    /**
+     * Sequential access to buffer tokens.
+     */
+    public final class Cursor {
+
+        private int index = -1;
+
+        public boolean hasNext() {
+            return index + 1 < size;
+        }
+
+        /**
+         * Move to next token.
+         * @return index of next token
+         */
+        public int next() {
+            return ++index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getStart() {
+            return starts[index];
+        }
+
+        public int getEnd() {
+            return ends[index];
+        }
+
+        public TokenType getType() {
+            return TokenBuffer.this.getType(index);
+        }
+
+        public String getName() {
+            return TokenBuffer.this.getName(index);
+        }
+
+        TokenBuffer getBuffer() {
+            return TokenBuffer.this;
+        }
+
+        void setName(String name) {
+            TokenBuffer.this.setName(index, name);
+        }
+
+        void mark(boolean translatable, int externality, int tagId, boolean escape,
+                  EnvironmentStack environmentStack) {
+            TokenBuffer.this.mark(index, translatable, externality, tagId, escape, environmentStack);
+        }
+
+        public boolean isTranslatable() {
+            return TokenBuffer.this.isTranslatable(index);
+        }
+    }
+}
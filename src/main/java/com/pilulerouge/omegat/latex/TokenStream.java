@@ -0,0 +1,148 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Tokenizes document while reading it chunk by chunk.
+ * Chunks end at safe split points which no token can span, so the result is the same as for whole document.
+ * Consumed tokens and text are released by the caller, memory is bounded by the longest open segment.
+ */
+final class TokenStream {
+
+    static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private final TokenizerMode mode;
+    private final TextWindow text;
+    private final TokenBuffer tokens;
+    private final int chunkSize;
+
+    private int scanned;    // End of tokenized text
+    private int searched;   // End of text searched for chunk boundary
+    private int gapStart;   // Start of trailing text not covered by tokens
+    private boolean finished;
+
+    /**
+     * @param reader document reader
+     * @param mode tokenizer engine
+     * @param configSymbols config symbol table
+     */
+    TokenStream(Reader reader, TokenizerMode mode, SymbolTable configSymbols) {
+        this(reader, mode, configSymbols, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param reader document reader
+     * @param mode tokenizer engine
+     * @param configSymbols config symbol table
+     * @param chunkSize number of characters read at once, chunks may be longer up to the next safe split point
+     */
+    TokenStream(Reader reader, TokenizerMode mode, SymbolTable configSymbols, int chunkSize) {
+        this.reader = reader;
+        this.mode = mode;
+        this.chunkSize = chunkSize;
+        text = new TextWindow(chunkSize * 2);
+        tokens = new TokenBuffer(new SymbolTable(configSymbols));
+        scanned = 0;
+        searched = 0;
+        gapStart = 0;
+        finished = false;
+    }
+
+    /**
+     * @return document text available so far
+     */
+    CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * @return buffer receiving tokens of every chunk
+     */
+    TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Read and tokenize next chunk.
+     * @return false if document is over
+     * @throws IOException on read error
+     */
+    boolean advance() throws IOException {
+        if (finished) {
+            return false;
+        }
+        int boundary = -1;
+        boolean endOfStream = false;
+        while (boundary < 0) {
+            if (text.length() - scanned < chunkSize || searched == text.length()) {
+                if (!text.fill(reader, chunkSize)) {
+                    endOfStream = true;
+                    boundary = text.length();
+                    break;
+                }
+                if (text.length() - scanned < chunkSize) {
+                    continue;
+                }
+            }
+            boundary = findBoundary();
+        }
+
+        if (boundary > scanned) {
+            String chunk = text.subSequence(scanned, boundary).toString();
+            gapStart = Tokenizer.tokenizeChunk(text, chunk, scanned, gapStart, mode, false, tokens);
+            scanned = boundary;
+        }
+        if (endOfStream) {
+            Tokenizer.finishTokens(text, gapStart, tokens);
+            finished = true;
+        }
+        return true;
+    }
+
+    /**
+     * Drop tokens and text consumed by the caller. Every token in buffer must be consumed.
+     */
+    void release() {
+        tokens.clear();
+        text.discard(gapStart);
+    }
+
+    /**
+     * Find last safe split point in unsearched text.
+     * @return absolute boundary position or -1
+     */
+    private int findBoundary() {
+        int from = Math.max(searched, scanned + 1);
+        int to = text.length() - 1; // Next character must be available
+        searched = text.length();
+        for (int position = to; position >= from; position--) {
+            if (Tokenizer.isSafeSplit(text, position, scanned)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+}
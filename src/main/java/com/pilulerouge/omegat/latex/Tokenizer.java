@@ -23,39 +23,39 @@ package com.pilulerouge.omegat.latex;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
-import java.util.regex.MatchResult;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static com.pilulerouge.omegat.latex.Util.logLocalRB;
+
 public class Tokenizer {
 
     /**
-     * Token patterns possibly canceling each other. Free order.
+     * Token patterns possibly canceling each other. Order is used only for matches starting
+     * at the same position and must be kept in sync with {@link Lexer}.
      */
-    private static final Map<Pattern, TokenType> CONCURRENT_PATTERN_TOKENS = new HashMap<>();
+    private static final Map<Pattern, TokenType> CONCURRENT_PATTERN_TOKENS = new LinkedHashMap<>();
     static {
         // URL in href and url commands may contain % symbol
         CONCURRENT_PATTERN_TOKENS.put(
                 Pattern.compile("(?<=(?:^|[^\\\\])\\\\(?:href|url)\\{).+?(?=})"),
                 TokenType.TEXT
         );
-        // LaTeX comments
-        CONCURRENT_PATTERN_TOKENS.put(
-                Pattern.compile("(?<!\\\\)%.*?$", Pattern.MULTILINE),
-                TokenType.COMMENT
-        );
         // Verbatim environment
         CONCURRENT_PATTERN_TOKENS.put(
                 Pattern.compile("(?<=(?:^|[^\\\\])\\\\begin\\{verbatim\\*?}).+?(?=\\\\end\\{verbatim\\*?})"),
                 TokenType.VERBATIM
         );
+        // LaTeX comments
+        CONCURRENT_PATTERN_TOKENS.put(
+                Pattern.compile("(?<!\\\\)%.*?$", Pattern.MULTILINE),
+                TokenType.COMMENT
+        );
         // \verb command, split into subtokens later
         CONCURRENT_PATTERN_TOKENS.put(
                 Pattern.compile("(?<!\\\\)(\\\\verb)([^a-z])(.+?)(\\2)"),
@@ -64,7 +64,7 @@ public class Tokenizer {
     }
 
     /**
-     * Token patterns matched by strict order.
+     * Token patterns matched by strict order. Keep in sync with {@link Lexer}.
      */
     private static final Map<Pattern, TokenType> ORDERED_PATTERN_TOKENS = new LinkedHashMap<>();
     static {
@@ -146,129 +146,451 @@ public class Tokenizer {
         );
     }
 
-    // Pattern for STN token
-    private static final Pattern STN_PATTERN = Pattern.compile("^[\\s\\t\\n]+$");
+    private static final TokenType[] CONCURRENT_TYPES =
+            CONCURRENT_PATTERN_TOKENS.values().toArray(new TokenType[0]);
+    private static final TokenType[] ORDERED_TYPES =
+            ORDERED_PATTERN_TOKENS.values().toArray(new TokenType[0]);
+
+    private static final String VERB_COMMAND = "\\verb";
+
+    // Regex engine step budget: character reads allowed for each pattern per document character
+    private static final long REGEX_STEPS_PER_CHAR = 64;
+    private static final long REGEX_MIN_STEPS = 1 << 20;
+
+    // Parallel tokenization settings
+    private static final int MIN_PARALLEL_CHUNK_SIZE = 1 << 16;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    public static TokenBuffer tokenizeDocument(CharSequence sourceText) {
+        return tokenizeDocument(sourceText, TokenizerMode.LEXER);
+    }
+
+    public static TokenBuffer tokenizeDocument(CharSequence sourceText, TokenizerMode mode) {
+        return tokenizeDocument(sourceText, mode, false);
+    }
+
+    /**
+     * Tokenize document splitting it into chunks which are tokenized concurrently.
+     * Pattern sweeps of the regular expression engine run concurrently as well.
+     * @param sourceText document text
+     * @param mode tokenizer engine
+     * @param parallel use common fork-join pool
+     * @return document tokens
+     */
+    public static TokenBuffer tokenizeDocument(CharSequence sourceText, TokenizerMode mode, boolean parallel) {
+        return tokenizeDocument(sourceText, mode, parallel, CommandCenter.getSymbols());
+    }
+
+    /**
+     * Tokenize document resolving command names with the given config.
+     * @param sourceText document text
+     * @param mode tokenizer engine
+     * @param parallel use common fork-join pool
+     * @param configSymbols config symbol table
+     * @return document tokens
+     */
+    static TokenBuffer tokenizeDocument(CharSequence sourceText, TokenizerMode mode, boolean parallel,
+                                        SymbolTable configSymbols) {
+        if (!parallel) {
+            TokenBuffer tokens = new TokenBuffer(new SymbolTable(configSymbols));
+            int gapStart = tokenizeChunk(sourceText, sourceText, 0, 0, mode, false, tokens);
+            finishTokens(sourceText, gapStart, tokens);
+            return tokens;
+        }
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        IntList splits = findSplits(sourceText, pool.getParallelism() * CHUNKS_PER_THREAD);
+
+        // Leading text of a chunk may continue text of the previous one,
+        // so chunks are tokenized without it and stitched here.
+        List<ForkJoinTask<TokenBuffer>> tasks = new ArrayList<>(splits.size() - 1);
+        for (int i = 1; i < splits.size(); i++) {
+            int start = splits.get(i - 1);
+            CharSequence chunk = sourceText.subSequence(start, splits.get(i));
+            tasks.add(pool.submit(() -> {
+                TokenBuffer chunkTokens = new TokenBuffer(new SymbolTable(configSymbols));
+                tokenizeChunk(sourceText, chunk, start, -1, mode, true, chunkTokens);
+                return chunkTokens;
+            }));
+        }
+
+        TokenBuffer tokens = new TokenBuffer(new SymbolTable(configSymbols));
+        int gapStart = 0;
+        for (ForkJoinTask<TokenBuffer> task : tasks) {
+            TokenBuffer chunkTokens = task.join();
+            if (chunkTokens.size() > 0) {
+                addGapToken(sourceText, gapStart, chunkTokens.getStart(0), tokens);
+                tokens.addAll(chunkTokens);
+                gapStart = chunkTokens.getEnd(chunkTokens.size() - 1);
+            }
+        }
+        finishTokens(sourceText, gapStart, tokens);
+        return tokens;
+    }
+
+    /**
+     * Check that document can be split at position without changing its tokens.
+     * Every token pattern matches inside a single line except empty line, which cannot continue
+     * over a non-whitespace character, and \verb command using line break as delimiter.
+     * @param text document text
+     * @param position split position, character at it must be available
+     * @param lowerLimit start of text available for checks
+     * @return true if position is a safe split point
+     */
+    static boolean isSafeSplit(CharSequence text, int position, int lowerLimit) {
+        if (position <= lowerLimit) {
+            return false;
+        }
+        char previous = text.charAt(position - 1);
+        if ((previous != '\n' && previous != '\r') || Lexer.isWhitespace(text.charAt(position))) {
+            return false;
+        }
+        int verbStart = position - 1 - VERB_COMMAND.length();
+        if (verbStart < lowerLimit) {
+            return true;
+        }
+        for (int i = 0; i < VERB_COMMAND.length(); i++) {
+            if (text.charAt(verbStart + i) != VERB_COMMAND.charAt(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find safe split points dividing document into chunks of roughly equal size.
+     * @param text document text
+     * @param chunkCount desired number of chunks
+     * @return chunk boundaries including document start and end
+     */
+    private static IntList findSplits(CharSequence text, int chunkCount) {
+        int length = text.length();
+        int chunkSize = Math.max(MIN_PARALLEL_CHUNK_SIZE, length / chunkCount);
+        IntList splits = new IntList();
+        splits.add(0);
+        int position = chunkSize;
+        while (position < length) {
+            int lowerLimit = splits.getLast();
+            while (position < length && !isSafeSplit(text, position, lowerLimit)) {
+                position++;
+            }
+            if (position == length) {
+                break;
+            }
+            splits.add(position);
+            position += chunkSize;
+        }
+        splits.add(length);
+        return splits;
+    }
+
+    /**
+     * Tokenize part of document and append its tokens to buffer.
+     * Chunk must start and end at line boundaries where no token can cross them,
+     * text after the last token is left for the next chunk as it may continue there.
+     * @param document document text addressed by absolute positions
+     * @param chunk chunk text
+     * @param offset absolute chunk position
+     * @param gapStart start of text preceding chunk which is not covered by tokens yet,
+     *                 negative to leave text before the first token to the caller
+     * @param mode tokenizer engine
+     * @param parallel run pattern sweeps concurrently
+     * @param tokens buffer to append tokens to
+     * @return start of trailing text not covered by tokens
+     */
+    static int tokenizeChunk(CharSequence document, CharSequence chunk, int offset, int gapStart,
+                             TokenizerMode mode, boolean parallel, TokenBuffer tokens) {
+        MatchList[] concurrentMatches = createMatchLists(CONCURRENT_TYPES.length);
+        MatchList[] orderedMatches = createMatchLists(ORDERED_TYPES.length);
+
+        if (mode == TokenizerMode.REGEX && parallel) {
+            findPatternMatchesConcurrently(chunk, offset, concurrentMatches, orderedMatches);
+        } else if (mode == TokenizerMode.REGEX) {
+            findPatternMatches(chunk, offset, CONCURRENT_PATTERN_TOKENS, concurrentMatches);
+            findPatternMatches(chunk, offset, ORDERED_PATTERN_TOKENS, orderedMatches);
+        } else {
+            Lexer.scan(chunk, concurrentMatches, orderedMatches);
+        }
+
+        return collectTokens(document, chunk, offset, gapStart, concurrentMatches, orderedMatches, tokens);
+    }
+
+    /**
+     * Append last TEXT/STN token and DUMMY token at the end of document.
+     * @param document document text addressed by absolute positions
+     * @param gapStart start of trailing text not covered by tokens
+     * @param tokens buffer to append tokens to
+     */
+    static void finishTokens(CharSequence document, int gapStart, TokenBuffer tokens) {
+        int end = document.length();
+        addGapToken(document, gapStart, end, tokens);
+        // Add DUMMY token at the end for convenience
+        tokens.add(TokenType.DUMMY, end, end, null);
+    }
 
-    public static ListIterator<Token> tokenizeDocument(String sourceText) {
-        LinkedList<Token> tokens = new LinkedList<>();
-        int[] residency = new int[sourceText.length()]; // Tracks token overlap
-        Arrays.fill(residency, -1);
+    /**
+     * Make tokens from pattern matches resolving overlaps by pattern order.
+     * @param document document text addressed by absolute positions
+     * @param chunk chunk text
+     * @param offset absolute chunk position
+     * @param gapStart start of text preceding chunk which is not covered by tokens yet or negative
+     * @param concurrentMatches matches of concurrent patterns
+     * @param orderedMatches matches of ordered patterns
+     * @param result buffer to append tokens to in order of appearance
+     * @return start of trailing text not covered by tokens
+     */
+    private static int collectTokens(CharSequence document, CharSequence chunk, int offset, int gapStart,
+                                     MatchList[] concurrentMatches, MatchList[] orderedMatches,
+                                     TokenBuffer result) {
+        TokenBuffer tokens = new TokenBuffer(result.getSymbols());
+        Residency residency = new Residency(); // Tracks token overlap
 
         // Find concurrent tokens
-        findConcurrentTokens(sourceText, tokens, residency);
+        findConcurrentTokens(chunk, concurrentMatches, tokens, residency);
 
         // Collect document tokens
-        String tokenName;
-        for (Map.Entry<Pattern, TokenType> entry : ORDERED_PATTERN_TOKENS.entrySet()) {
-            Pattern pattern = entry.getKey();
-            TokenType tokenType = entry.getValue();
-            Matcher matcher = pattern.matcher(sourceText);
-            while (matcher.find()) {
+        int tokenNameId;
+        for (int patternIndex = 0; patternIndex < orderedMatches.length; patternIndex++) {
+            TokenType tokenType = ORDERED_TYPES[patternIndex];
+            MatchList matches = orderedMatches[patternIndex];
+            for (int matchIndex = 0; matchIndex < matches.size(); matchIndex++) {
 
-                int tokenBegin = matcher.start();
-                int tokenEnd = matcher.end();
+                int tokenBegin = matches.getStart(matchIndex);
+                int tokenEnd = matches.getEnd(matchIndex);
 
                 // Check token overlap
-                boolean vacant = true;
-                for (int i = tokenBegin; i < tokenEnd; i++) {
-                    if (residency[i] >= 0) {
-                        vacant = false;
-                        break;
-                    }
-                }
-
-                if (!vacant) {
+                if (!residency.isVacant(tokenBegin, tokenEnd)) {
                     continue;
                 }
 
-                // Fill residency
-                for (int i = tokenBegin; i < tokenEnd; i++) {
-                    residency[i] = tokenType.ordinal();
-                }
+                residency.occupy(tokenBegin, tokenEnd);
 
-                if (matcher.groupCount() > 0) {
-                    tokenName = matcher.group(1);
+                if (matches.getGroupStart(matchIndex) >= 0) {
+                    tokenNameId = tokens.internName(chunk, matches.getGroupStart(matchIndex),
+                            matches.getGroupEnd(matchIndex));
                 } else {
-                    tokenName = null;
+                    tokenNameId = -1;
                 }
 
-                tokens.add(new Token(tokenType, matcher.start(), matcher.end(), tokenName));
+                tokens.add(tokenType, tokenBegin, tokenEnd, tokenNameId);
             }
+            residency.commit();
         }
-        Collections.sort(tokens);
 
-        // Generate TEXT/STN tokens between collected tokens
-        // Add DUMMY token at the end for convenience
-        tokens.add(Token.getDummyToken(sourceText.length()));
-        ArrayList<Token> textTokens = new ArrayList<>();
-        Token prevToken = Token.getDummyToken(0); // Dummy token for starters
-        TokenType newTokenType;
-        int begin, end;
-        for (Token thisToken : tokens) {
-            begin = prevToken.getEnd();
-            end = thisToken.getStart();
-            if (begin < end) {
-                if (STN_PATTERN.matcher(sourceText.substring(begin, end)).matches()) {
-                    newTokenType = TokenType.STN;
-                } else {
-                    newTokenType = TokenType.TEXT;
-                }
-                textTokens.add(new Token(newTokenType, begin, end, null));
+        // Sort collected tokens. They never overlap, so start positions are unique.
+        long[] order = new long[tokens.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = ((long) tokens.getStart(i) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        // Copy tokens in order generating TEXT/STN tokens between them
+        int begin = gapStart;
+        for (long key : order) {
+            int index = (int) key;
+            int start = offset + tokens.getStart(index);
+            if (begin >= 0) {
+                addGapToken(document, begin, start, result);
             }
-            prevToken = thisToken;
+            begin = offset + tokens.getEnd(index);
+            result.add(tokens.getType(index), start, begin, tokens.getNameId(index));
         }
-        tokens.addAll(textTokens);
-        Collections.sort(tokens);
 
-        // When all tokens are created and sorted make an iterator
-        return tokens.listIterator();
+        return begin;
     }
 
     /**
-     * Some token types cannot be reliably detected purely by correct order of searching.
-     * This method tries to find such tokens using order of appearance in source text.
-     * @param text document string
-     * @param tokens empty list of tokens which will be used by calling method further
-     * @param residency residency array to be used by calling method further
+     * Add TEXT or STN token for text between other tokens.
+     * @param document document text addressed by absolute positions
+     * @param begin gap start
+     * @param end gap end
+     * @param tokens buffer to append token to
+     */
+    private static void addGapToken(CharSequence document, int begin, int end, TokenBuffer tokens) {
+        if (begin >= end) {
+            return;
+        }
+        // Text consisting of whitespace only is STN
+        TokenType tokenType = TokenType.STN;
+        for (int i = begin; i < end; i++) {
+            if (!Lexer.isWhitespace(document.charAt(i))) {
+                tokenType = TokenType.TEXT;
+                break;
+            }
+        }
+        tokens.add(tokenType, begin, end, -1);
+    }
+
+    /**
+     * Reference engine: run every pattern over the whole document.
+     * @param text document text
+     * @param offset absolute text position
+     * @param patternTokens patterns in order of match lists
+     * @param matchLists empty match lists to fill
+     */
+    private static void findPatternMatches(CharSequence text, int offset, Map<Pattern, TokenType> patternTokens,
+                                           MatchList[] matchLists) {
+        int patternIndex = 0;
+        for (Map.Entry<Pattern, TokenType> entry : patternTokens.entrySet()) {
+            findMatches(text, offset, entry.getKey(), entry.getValue(), matchLists[patternIndex++]);
+        }
+    }
+
+    /**
+     * Reference engine with every pattern sweep running as a separate fork-join task.
+     * Sweeps only fill their own match lists, precedence is resolved afterwards as usual.
+     * @param text document text
+     * @param offset absolute text position
+     * @param concurrentMatches empty match lists for concurrent patterns
+     * @param orderedMatches empty match lists for ordered patterns
+     */
+    private static void findPatternMatchesConcurrently(CharSequence text, int offset, MatchList[] concurrentMatches,
+                                                       MatchList[] orderedMatches) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(concurrentMatches.length + orderedMatches.length);
+        addSweepTasks(text, offset, CONCURRENT_PATTERN_TOKENS, concurrentMatches, tasks);
+        addSweepTasks(text, offset, ORDERED_PATTERN_TOKENS, orderedMatches, tasks);
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    private static void addSweepTasks(CharSequence text, int offset, Map<Pattern, TokenType> patternTokens,
+                                      MatchList[] matchLists, List<ForkJoinTask<?>> tasks) {
+        int patternIndex = 0;
+        for (Map.Entry<Pattern, TokenType> entry : patternTokens.entrySet()) {
+            MatchList matches = matchLists[patternIndex++];
+            tasks.add(ForkJoinTask.adapt(() -> findMatches(text, offset, entry.getKey(), entry.getValue(), matches)));
+        }
+    }
+
+    /**
+     * Collect all matches of a pattern in order of appearance.
+     * Only the first group of a pattern is kept, except \verb pattern which keeps its content.
+     * Search runs on a step budget proportional to text length. When a search exhausts it,
+     * no matches of the pattern are taken up to the end of the line where it stalled, the position
+     * is logged and the search goes on from the next line. Resumed searches take their budget from
+     * a reserve of the same size, so a pattern never reads more than twice its budget however many
+     * lines stall. When the reserve is spent, the rest of the text is left without matches.
+     * @param text document text
+     * @param offset absolute text position used in log messages
+     * @param pattern token pattern
+     * @param tokenType token type of pattern
+     * @param matches empty match list to fill
      */
-    private static void findConcurrentTokens(String text, LinkedList<Token> tokens, int[] residency) {
-        Map<Token, MatchResult> verbMatches = new HashMap<>();
-        List<Token> allTokens = new ArrayList<>();
-        for (Map.Entry<Pattern, TokenType> entry : CONCURRENT_PATTERN_TOKENS.entrySet()) {
-            Pattern pattern = entry.getKey();
-            TokenType tokenType = entry.getValue();
-            Matcher matcher = pattern.matcher(text);
-            while (matcher.find()) {
-                Token token = new Token(tokenType, matcher.start(), matcher.end(), null);
-                allTokens.add(token);
-                // Keep \verb matches to split tokens later
-                if (tokenType == TokenType.TEMP_VERB) {
-                    verbMatches.put(token, matcher.toMatchResult());
+    private static void findMatches(CharSequence text, int offset, Pattern pattern, TokenType tokenType,
+                                    MatchList matches) {
+        int group = tokenType == TokenType.TEMP_VERB ? 3 : 1;
+        BoundedText boundedText = new BoundedText(text);
+        long reserve = getStepBudget(text.length()); // Budget of resumed searches
+        boundedText.setBudget(reserve);
+        // Lookarounds and anchors must see text outside of region when search is resumed
+        Matcher matcher = pattern.matcher(boundedText).useTransparentBounds(true).useAnchoringBounds(false);
+        int searchStart = 0;
+        while (true) {
+            try {
+                if (!matcher.find()) {
+                    break;
+                }
+            } catch (BoundedText.ExhaustedException e) {
+                int stall = Math.max(searchStart, boundedText.getLastPosition());
+                logLocalRB("LOG_TOKENIZER_STEP_LIMIT", SimpleLatexFilter.class.getSimpleName(),
+                        tokenType, offset + stall);
+                searchStart = skipLine(text, stall);
+                // Budget is spent completely on stall, so granted budgets never exceed the reserve in total
+                long budget = Math.min(reserve, getStepBudget(text.length() - searchStart));
+                if (budget == 0) {
+                    if (searchStart < text.length()) {
+                        logLocalRB("LOG_TOKENIZER_DOCUMENT_LIMIT", SimpleLatexFilter.class.getSimpleName(),
+                                tokenType, offset + searchStart);
+                    }
+                    break;
                 }
+                reserve -= budget;
+                boundedText.setBudget(budget);
+                matcher.region(searchStart, text.length());
+                continue;
+            }
+            if (matcher.groupCount() >= group) {
+                matches.add(matcher.start(), matcher.end(), matcher.start(group), matcher.end(group));
+            } else {
+                matches.add(matcher.start(), matcher.end(), -1, -1);
             }
+            searchStart = matcher.end();
         }
+    }
 
-        Collections.sort(allTokens);
+    private static long getStepBudget(int length) {
+        return Math.max(REGEX_MIN_STEPS, REGEX_STEPS_PER_CHAR * length);
+    }
 
+    /**
+     * @return position after the first line break at or after position, or text length
+     */
+    private static int skipLine(CharSequence text, int position) {
+        int length = text.length();
+        while (position < length) {
+            char c = text.charAt(position++);
+            if (c == '\n' || c == '\r') {
+                break;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Some token types cannot be reliably detected purely by correct order of searching.
+     * This method tries to find such tokens using order of appearance in source text.
+     * Matches starting at the same position are taken in pattern order.
+     * @param text document text
+     * @param matchLists matches of concurrent patterns
+     * @param tokens empty token buffer which will be used by calling method further
+     * @param residency empty residency to be used by calling method further
+     */
+    private static void findConcurrentTokens(CharSequence text, MatchList[] matchLists, TokenBuffer tokens,
+                                             Residency residency) {
+        int[] positions = new int[matchLists.length];
         int prevTokenEnd = 0;
-        for (Token t: allTokens) {
-            if (t.getStart() >= prevTokenEnd) {
-                if (t.getType() == TokenType.TEMP_VERB) {
-                    MatchResult mr = verbMatches.get(t);
-                    tokens.add(new Token(TokenType.COMMAND, mr.start(1), mr.end(1), "verb"));
-                    tokens.add(new Token(TokenType.GROUP_BEGIN, mr.start(2), mr.end(2), null));
-                    tokens.add(new Token(TokenType.TEXT, mr.start(3), mr.end(3), null));
-                    tokens.add(new Token(TokenType.GROUP_END, mr.start(4), mr.end(4), null));
-                } else {
-                    tokens.add(t);
-                }
-                prevTokenEnd = t.getEnd();
-                // Fill residency
-                for (int i = t.getStart(); i < t.getEnd(); i++) {
-                    residency[i] = t.getType().ordinal();
+        while (true) {
+            // Take the earliest match among all patterns
+            int patternIndex = -1;
+            int tokenStart = Integer.MAX_VALUE;
+            for (int i = 0; i < matchLists.length; i++) {
+                if (positions[i] < matchLists[i].size() && matchLists[i].getStart(positions[i]) < tokenStart) {
+                    patternIndex = i;
+                    tokenStart = matchLists[i].getStart(positions[i]);
                 }
             }
+            if (patternIndex < 0) {
+                break;
+            }
+            MatchList matches = matchLists[patternIndex];
+            int matchIndex = positions[patternIndex]++;
+            if (tokenStart < prevTokenEnd) {
+                continue;
+            }
+
+            int tokenEnd = matches.getEnd(matchIndex);
+            TokenType tokenType = CONCURRENT_TYPES[patternIndex];
+            if (tokenType == TokenType.TEMP_VERB) {
+                int contentStart = matches.getGroupStart(matchIndex);
+                int contentEnd = matches.getGroupEnd(matchIndex);
+                int commandEnd = tokenStart + "\\verb".length();
+                tokens.add(TokenType.COMMAND, tokenStart, commandEnd, "verb");
+                tokens.add(TokenType.GROUP_BEGIN, commandEnd, contentStart, null);
+                tokens.add(TokenType.TEXT, contentStart, contentEnd, null);
+                tokens.add(TokenType.GROUP_END, contentEnd, tokenEnd, null);
+            } else {
+                tokens.add(tokenType, tokenStart, tokenEnd, null);
+            }
+            prevTokenEnd = tokenEnd;
+            residency.occupy(tokenStart, tokenEnd);
+        }
+        residency.commit();
+    }
+
+    private static MatchList[] createMatchLists(int count) {
+        MatchList[] matchLists = new MatchList[count];
+        for (int i = 0; i < count; i++) {
+            matchLists[i] = new MatchList();
         }
+        return matchLists;
     }
 
     private Tokenizer() {
@@ -26,7 +26,6 @@ import gen.core.filters.Filters;
 import org.omegat.core.Core;
 import org.omegat.core.data.IProject;
 import org.omegat.filters2.master.FilterMaster;
-import org.omegat.util.LinebreakPreservingReader;
 import org.omegat.util.Log;
 import org.omegat.util.StaticUtils;
 
@@ -35,7 +34,17 @@ import javax.xml.bind.Unmarshaller;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -59,18 +68,154 @@ public final class Util {
 
     static final String FILTER_NAME = RB.getString("FILTER_NAME");
 
-    public static String readBufferWithLinebreaks(BufferedReader reader) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        LinebreakPreservingReader lbpr = new LinebreakPreservingReader(reader);
-        String line, br;
+    private static final int READ_BLOCK_SIZE = 65536;
+    private static final int BYTE_VALUES = 256;
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final char[] ASCII_TABLE = new char[BYTE_VALUES / 2];
+    static {
+        for (int i = 0; i < ASCII_TABLE.length; i++) {
+            ASCII_TABLE[i] = (char) i;
+        }
+    }
+
+    /**
+     * Read the whole text keeping line breaks as is.
+     * @param reader source reader
+     * @return text backed by the read buffer
+     * @throws IOException on read error
+     */
+    public static CharSequence readBufferWithLinebreaks(BufferedReader reader) throws IOException {
+        return readBufferWithLinebreaks(reader, -1);
+    }
+
+    /**
+     * Read the whole text in large blocks. Text is not split into lines, so line breaks are kept as is.
+     * The buffer is sized by source size in bytes, which is never less than number of characters, so it is
+     * neither grown nor copied. Characters taking several bytes leave part of it unused.
+     * @param reader source reader
+     * @param sizeHint source size in bytes or -1 if unknown
+     * @return text backed by the read buffer
+     * @throws IOException on read error
+     */
+    static CharSequence readBufferWithLinebreaks(Reader reader, long sizeHint) throws IOException {
+        int capacity = READ_BLOCK_SIZE;
+        if (sizeHint >= 0 && sizeHint < Integer.MAX_VALUE - 8) {
+            capacity = (int) sizeHint + 1; // Room to see end of stream without growing
+        }
+        char[] data = new char[capacity];
+        int count = 0;
+        while (true) {
+            if (count == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int read = reader.read(data, count, Math.min(data.length - count, READ_BLOCK_SIZE));
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        return CharBuffer.wrap(data, 0, count);
+    }
+
+    /**
+     * Map file into memory and expose it as text read straight from the mapping, without decoding it.
+     * That is possible when every byte is a character: for single-byte encodings and for UTF-8 files without
+     * non-ASCII characters, whose byte order mark is skipped like readers do. Line breaks are kept as is,
+     * malformed input is replaced. The mapping is released by garbage collector only, until then the file
+     * can't be modified or deleted on Windows.
+     * @param file source file
+     * @param encoding file encoding
+     * @return mapped text or null if file can't be read this way
+     * @throws IOException on read error
+     */
+    static CharSequence readMappedFile(File file, String encoding) throws IOException {
+        Charset charset = Charset.forName(encoding);
+        char[] table = getByteTable(charset);
+        if (table == null && !charset.equals(StandardCharsets.UTF_8)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            int offset = 0;
+            if (table == null) {
+                // Checked before mapping, so a file that can't be mapped is not held until garbage collection
+                offset = findAsciiStart(channel);
+                if (offset < 0) {
+                    return null;
+                }
+                table = ASCII_TABLE;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedText(buffer, table, offset, (int) size - offset);
+        }
+    }
+
+    /**
+     * @param charset file encoding
+     * @return characters of all byte values or null if encoding is not single-byte
+     * @throws IOException on decoding error
+     */
+    private static char[] getByteTable(Charset charset) throws IOException {
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1.0f) {
+            return null;
+        }
+        byte[] bytes = new byte[BYTE_VALUES];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        CharBuffer chars = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(ByteBuffer.wrap(bytes));
+        if (chars.remaining() != bytes.length) {
+            return null;
+        }
+        char[] table = new char[bytes.length];
+        chars.get(table);
+        return table;
+    }
 
-        while ((line = lbpr.readLine()) != null) {
-            br = lbpr.getLinebreak();
-            builder.append(line);
-            builder.append(br);
+    /**
+     * Read UTF-8 file until the first non-ASCII character.
+     * @param channel file channel at its start
+     * @return length of byte order mark or -1 if file has non-ASCII characters
+     * @throws IOException on read error
+     */
+    private static int findAsciiStart(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BLOCK_SIZE);
+        while (buffer.position() < UTF8_BOM.length && channel.read(buffer) >= 0) {
+            // Byte order mark is read whole
+        }
+        buffer.flip();
+        int start = startsWith(buffer, UTF8_BOM) ? UTF8_BOM.length : 0;
+        buffer.position(start);
+        while (true) {
+            while (buffer.hasRemaining()) {
+                if (buffer.get() < 0) {
+                    return -1;
+                }
+            }
+            buffer.clear();
+            if (channel.read(buffer) < 0) {
+                return start;
+            }
+            buffer.flip();
         }
+    }
 
-        return builder.toString();
+    private static boolean startsWith(ByteBuffer buffer, byte[] prefix) {
+        if (buffer.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(buffer.position() + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     static void logLocalRB(String key, Object... parameters) {
@@ -110,6 +255,38 @@ public final class Util {
         return filterOptions;
     }
 
+    /**
+     * Get enum value of a filter option.
+     * @param options filter options, may be null
+     * @param key option name
+     * @param defaultValue value for missing or unknown option
+     * @return option value
+     */
+    static <E extends Enum<E>> E getEnumOption(Map<String, String> options, String key, E defaultValue) {
+        if (options == null || !options.containsKey(key)) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), options.get(key).trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get boolean value of a filter option.
+     * @param options filter options, may be null
+     * @param key option name
+     * @param defaultValue value for missing option
+     * @return option value
+     */
+    static boolean getBooleanOption(Map<String, String> options, String key, boolean defaultValue) {
+        if (options == null || !options.containsKey(key)) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(options.get(key).trim());
+    }
+
     static boolean currentlyUsingThisFilter() {
         String filePath = Core.getEditor().getCurrentFile();
         if (filePath == null) {
@@ -0,0 +1,130 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandCenterTest {
+
+    @TempDir
+    Path directory;
+
+    private Path configFile;
+    private String bundledJson;
+
+    @BeforeEach
+    public void copyConfig() throws IOException {
+        // Shared config is loaded from bundled one first
+        new CommandCenter(true);
+        configFile = directory.resolve("SimpleLatexFilter.json");
+        try (InputStream in = CommandCenterTest.class.getResourceAsStream("/config.json")) {
+            Files.copy(in, configFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        bundledJson = new String(Files.readAllBytes(configFile), StandardCharsets.UTF_8);
+    }
+
+    @AfterEach
+    public void restoreConfig() throws IOException {
+        ConfigWatcher.stop();
+        // Shared config is used by other tests
+        write(bundledJson);
+        CommandCenter.reloadUserConfig(configFile);
+    }
+
+    @Test
+    public void testReloadUserConfig() throws IOException {
+        CommandCenter before = new CommandCenter(true);
+        assertEquals(Collections.emptySet(), CommandCenter.reloadUserConfig(configFile));
+
+        write(bundledJson.replace("\"tag\": \"b1\"", "\"tag\": \"x1\"")
+                .replace("\"consumeOptions\": [\"figure\", ", "\"consumeOptions\": ["));
+        SymbolTable symbols = CommandCenter.getSymbols();
+        assertEquals(new HashSet<>(Arrays.asList("textbf", "figure")), CommandCenter.reloadUserConfig(configFile));
+        // New instances get the new snapshot, existing ones keep theirs
+        CommandCenter after = new CommandCenter(true);
+        assertEquals("x1", after.getCommand("textbf").getTag());
+        assertFalse(after.isOptionConsumer("figure"));
+        assertEquals("b1", before.getCommand("textbf").getTag());
+        assertTrue(before.isOptionConsumer("figure"));
+        assertNotSame(symbols, CommandCenter.getSymbols());
+    }
+
+    @Test
+    public void testFailedReloadKeepsConfig() throws IOException {
+        SymbolTable symbols = CommandCenter.getSymbols();
+        write("{\"allCommands\": [");
+        assertThrows(IOException.class, () -> CommandCenter.reloadUserConfig(configFile));
+        assertSame(symbols, CommandCenter.getSymbols());
+        assertEquals("b1", new CommandCenter(true).getCommand("textbf").getTag());
+    }
+
+    @Test
+    public void testWatcherStops() {
+        ConfigWatcher.start(configFile);
+        assertTrue(ConfigWatcher.isRunning());
+        ConfigWatcher.stop();
+        assertFalse(ConfigWatcher.isRunning());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName().endsWith(" config watcher"), "Watcher thread is alive");
+        }
+        // Stopping again does nothing
+        ConfigWatcher.stop();
+    }
+
+    @Test
+    public void testWatcherForgetsDocuments() {
+        ConfigWatcher.recordNames(new File("a.tex"), Collections.singleton("textbf"));
+        assertEquals(0, ConfigWatcher.getDocumentCount());
+        ConfigWatcher.start(configFile);
+        ConfigWatcher.recordNames(new File("a.tex"), Collections.singleton("textbf"));
+        ConfigWatcher.recordNames(new File("b.tex"), Collections.singleton("emph"));
+        ConfigWatcher.recordNames(new File("a.tex"), Collections.singleton("emph"));
+        assertEquals(2, ConfigWatcher.getDocumentCount());
+        ConfigWatcher.forgetDocuments();
+        assertEquals(0, ConfigWatcher.getDocumentCount());
+    }
+
+    private void write(String json) throws IOException {
+        Files.write(configFile, json.getBytes(StandardCharsets.UTF_8));
+    }
+}
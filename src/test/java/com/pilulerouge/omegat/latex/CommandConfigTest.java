@@ -0,0 +1,261 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandConfigTest {
+
+    // Value forms the tree model accepted
+    private static final String VALUE_FORMS = "{"
+            + "\"unused\": {\"nested\": [1, 2]},"
+            + "\"allCommands\": ["
+            + "  {\"commands\": [\"plain\", {\"name\": \"nameOnly\"},"
+            + "    {\"name\": \"tagged\", \"tag\": \"t\", \"extra\": [true],"
+            + "     \"args\": [{\"translate\": \"true\", \"external\": 1}, {\"translate\": 0, \"escape\": false}],"
+            + "     \"options\": [{\"external\": true}, {\"translate\": false}]}],"
+            + "   \"type\": \"FORMAT\"},"
+            + "  {\"type\": \"CONTENT\", \"commands\": [\"content\", {\"name\": \"contentObject\", \"args\": []}]},"
+            + "  {\"type\": \"CONTROL\", \"commands\": [\"control\", {\"name\": \"controlObject\"}]}"
+            + "],"
+            + "\"environments\": {\"consumeOptions\": [\"figure\"], \"consumeArguments\": [\"tabular\"],"
+            + "  \"table\": [\"tabular\"], \"other\": [\"ignored\"]}"
+            + "}";
+
+    @Test
+    public void testBundledConfigSameAsTreeModel() throws IOException {
+        CommandConfig streamed;
+        try (InputStream in = CommandConfigTest.class.getResourceAsStream("/config.json")) {
+            streamed = CommandConfig.read(in);
+        }
+        CommandConfig tree;
+        try (InputStream in = CommandConfigTest.class.getResourceAsStream("/config.json")) {
+            tree = readTree(in);
+        }
+        assertEquals(0, streamed.findChangedNames(tree).size(), streamed.findChangedNames(tree).toString());
+        assertEquals(0, tree.findChangedNames(streamed).size());
+        assertEquals("b1", streamed.getCommand("textbf").getTag());
+        assertTrue(streamed.isTableEnvironment("tabular"));
+    }
+
+    @Test
+    public void testValueFormsSameAsTreeModel() throws IOException {
+        CommandConfig streamed = CommandConfig.read(stream(VALUE_FORMS));
+        CommandConfig tree = readTree(stream(VALUE_FORMS));
+        assertEquals(0, streamed.findChangedNames(tree).size(), streamed.findChangedNames(tree).toString());
+        Command tagged = streamed.getCommand("tagged");
+        assertEquals("t", tagged.getTag());
+        assertEquals(Arrays.asList(new CommandArgument(true, true, true), new CommandArgument(false, false, false)),
+                Arrays.asList(tagged.getArgs()));
+        assertEquals(Arrays.asList(new CommandArgument(true, true, true), new CommandArgument(false, false, true)),
+                Arrays.asList(tagged.getOptions()));
+        // Commands given by name get a translatable argument in CONTENT groups only
+        assertEquals(0, streamed.getCommand("plain").getArgs().length);
+        assertEquals(1, streamed.getCommand("content").getArgs().length);
+        assertEquals(1, streamed.getCommand("nameOnly").getArgs().length);
+        assertEquals(0, streamed.getCommand("controlObject").getArgs().length);
+    }
+
+    @Test
+    public void testInvalidConfigIsRejected() {
+        // Missing sections, unknown command type, argument without translate property, wrong root
+        assertThrows(IOException.class, () -> CommandConfig.read(stream("{\"allCommands\": []}")));
+        assertThrows(IOException.class, () -> CommandConfig.read(stream(
+                VALUE_FORMS.replace("\"CONTROL\"", "\"UNKNOWN\""))));
+        assertThrows(IOException.class, () -> CommandConfig.read(stream(
+                VALUE_FORMS.replace("{\"translate\": 0, ", "{"))));
+        assertThrows(IOException.class, () -> CommandConfig.read(stream("[]")));
+    }
+
+    @Test
+    public void testChangedNames() throws IOException {
+        CommandConfig config = CommandConfig.read(stream(VALUE_FORMS));
+        assertEquals(Collections.emptySet(), config.findChangedNames(CommandConfig.read(stream(VALUE_FORMS))));
+
+        // Command removed, command added, tag changed, arguments changed twice, table environment replaced
+        String changedJson = VALUE_FORMS
+                .replace("\"plain\", ", "")
+                .replace("\"control\"", "\"control\", \"added\"")
+                .replace("\"tag\": \"t\"", "\"tag\": \"u\"")
+                .replace("\"escape\": false", "\"escape\": true")
+                .replace("{\"name\": \"contentObject\", \"args\": []}", "{\"name\": \"contentObject\"}")
+                .replace("\"table\": [\"tabular\"]", "\"table\": [\"longtable\"]");
+        CommandConfig changed = CommandConfig.read(stream(changedJson));
+        Set<String> expected = new HashSet<>(Arrays.asList("plain", "added", "tagged", "contentObject",
+                "tabular", "longtable"));
+        assertEquals(expected, config.findChangedNames(changed));
+        assertEquals(expected, changed.findChangedNames(config));
+
+        // Command moved to another group changes its type
+        CommandConfig moved = CommandConfig.read(stream(VALUE_FORMS
+                .replace("\"control\", ", "").replace("\"content\", ", "\"content\", \"control\", ")));
+        assertEquals(new HashSet<>(Arrays.asList("control")), config.findChangedNames(moved));
+    }
+
+    @Test
+    public void testCommandEquality() {
+        CommandArgument[] args = {new CommandArgument(true, false, true)};
+        CommandArgument[] options = {new CommandArgument(false, false, true)};
+        Command command = new Command(CommandType.FORMAT, "name", "n", args, options);
+        Command same = new Command(CommandType.FORMAT, "name", "n", args.clone(), options.clone());
+        assertEquals(command, same);
+        assertEquals(command.hashCode(), same.hashCode());
+        assertNotEquals(command, new Command(CommandType.CONTENT, "name", "n", args, options));
+        assertNotEquals(command, new Command(CommandType.FORMAT, "other", "n", args, options));
+        assertNotEquals(command, new Command(CommandType.FORMAT, "name", null, args, options));
+        assertNotEquals(command, new Command(CommandType.FORMAT, "name", "n", options, options));
+        assertNotEquals(command, new Command(CommandType.FORMAT, "name", "n", args, args));
+        assertNotEquals(command, new Command(CommandType.FORMAT, "name", "n", new CommandArgument[0], options));
+
+        CommandArgument argument = new CommandArgument(true, true, false);
+        assertEquals(argument, new CommandArgument(true, true, false));
+        assertEquals(argument.hashCode(), new CommandArgument(true, true, false).hashCode());
+        assertNotEquals(argument, new CommandArgument(false, true, false));
+        assertNotEquals(argument, new CommandArgument(true, false, false));
+        assertNotEquals(argument, new CommandArgument(true, true, true));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        CommandConfig config;
+        try (InputStream in = CommandConfigTest.class.getResourceAsStream("/config.json")) {
+            config = CommandConfig.read(in);
+        }
+        byte[] data = writeBinary(config);
+        CommandConfig copy = CommandConfig.readBinary(new DataInputStream(new ByteArrayInputStream(data)));
+        assertEquals(0, config.findChangedNames(copy).size(), config.findChangedNames(copy).toString());
+        assertEquals(0, copy.findChangedNames(config).size());
+        // Virtual commands are not written but created again
+        assertNotNull(copy.getCommand(Command.GROUP_COMMAND_NAME));
+        assertEquals(Command.UNKNOWN_COMMAND_NAME, copy.getCommand("no such command").getName());
+
+        CommandConfig forms = CommandConfig.read(stream(VALUE_FORMS));
+        CommandConfig formsCopy = CommandConfig.readBinary(new DataInputStream(
+                new ByteArrayInputStream(writeBinary(forms))));
+        assertEquals(0, forms.findChangedNames(formsCopy).size());
+    }
+
+    @Test
+    public void testTruncatedBinaryFails() throws IOException {
+        byte[] data = writeBinary(CommandConfig.read(stream(VALUE_FORMS)));
+        byte[] truncated = Arrays.copyOf(data, data.length - 1);
+        assertThrows(EOFException.class, () -> CommandConfig.readBinary(
+                new DataInputStream(new ByteArrayInputStream(truncated))));
+    }
+
+    private static byte[] writeBinary(CommandConfig config) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            config.writeBinary(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read config with document tree the way it was read before streaming parser.
+     */
+    private static CommandConfig readTree(InputStream in) throws IOException {
+        JsonNode root = new ObjectMapper().readTree(in);
+        JsonNode envNode = root.get("environments");
+        List<String> optionConsumers = texts(envNode.get("consumeOptions"));
+        List<String> argumentConsumers = texts(envNode.get("consumeArguments"));
+        List<String> tableEnvironments = texts(envNode.get("table"));
+
+        List<Command> commands = new ArrayList<>();
+        for (JsonNode tcNode : root.get("allCommands")) {
+            CommandType commandType = CommandType.valueOf(tcNode.get("type").asText());
+            for (JsonNode commandNode : tcNode.get("commands")) {
+                List<CommandArgument> args = new ArrayList<>();
+                List<CommandArgument> options = new ArrayList<>();
+                String commandName, tagName;
+                if (commandNode.isTextual()) {
+                    commandName = commandNode.asText();
+                    tagName = null;
+                    if (commandType == CommandType.CONTENT) {
+                        args.add(new CommandArgument(true, false, true));
+                    }
+                } else {
+                    commandName = commandNode.get("name").asText();
+                    tagName = commandNode.has("tag") ? commandNode.get("tag").asText() : null;
+                    JsonNode argsNode = commandNode.get("args");
+                    if (argsNode == null && commandType != CommandType.CONTROL) {
+                        args.add(new CommandArgument(true, false, true));
+                    } else if (argsNode != null) {
+                        for (JsonNode argNode : argsNode) {
+                            args.add(new CommandArgument(argNode.get("translate").asBoolean(),
+                                    booleanValue(argNode, "external", false), booleanValue(argNode, "escape", true)));
+                        }
+                    }
+                    JsonNode optionsNode = commandNode.get("options");
+                    if (optionsNode != null) {
+                        for (JsonNode optNode : optionsNode) {
+                            options.add(new CommandArgument(booleanValue(optNode, "translate", true),
+                                    booleanValue(optNode, "external", false), booleanValue(optNode, "escape", true)));
+                        }
+                    }
+                }
+                commands.add(new Command(commandType, commandName, tagName, args.toArray(new CommandArgument[0]),
+                        options.toArray(new CommandArgument[0])));
+            }
+        }
+        return CommandConfig.create(commands, optionConsumers, argumentConsumers, tableEnvironments);
+    }
+
+    private static List<String> texts(JsonNode node) {
+        List<String> texts = new ArrayList<>();
+        for (JsonNode child : node) {
+            texts.add(child.asText());
+        }
+        return texts;
+    }
+
+    private static boolean booleanValue(JsonNode node, String field, boolean defaultValue) {
+        return node.has(field) ? node.get(field).asBoolean() : defaultValue;
+    }
+}
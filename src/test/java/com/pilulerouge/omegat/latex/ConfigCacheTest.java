@@ -0,0 +1,138 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConfigCacheTest {
+
+    // Snapshot times are set to this to see whether a snapshot was written again
+    private static final FileTime OLD_TIME = FileTime.fromMillis(1000000000000L);
+
+    private static final String SMALL_CONFIG = "{\"allCommands\": [{\"type\": \"FORMAT\", \"commands\": ["
+            + "{\"name\": \"textbf\", \"tag\": \"x\"}]}],"
+            + "\"environments\": {\"consumeOptions\": [], \"consumeArguments\": [], \"table\": []}}";
+
+    @TempDir
+    Path directory;
+
+    private Path configFile;
+    private Path cacheFile;
+
+    @BeforeEach
+    public void copyConfig() throws IOException {
+        configFile = directory.resolve("config.json");
+        cacheFile = directory.resolve("config.json.cache");
+        try (InputStream in = ConfigCacheTest.class.getResourceAsStream("/config.json")) {
+            Files.copy(in, configFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Test
+    public void testSnapshotIsWrittenAndReused() throws IOException {
+        assertFalse(Files.exists(cacheFile));
+        assertSameAsJson(ConfigCache.load(configFile));
+        assertTrue(Files.isRegularFile(cacheFile));
+
+        Files.setLastModifiedTime(cacheFile, OLD_TIME);
+        assertSameAsJson(ConfigCache.load(configFile));
+        // Up to date snapshot is read, not written again
+        assertEquals(OLD_TIME, Files.getLastModifiedTime(cacheFile));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count(), "Temporary snapshot left behind");
+        }
+    }
+
+    @Test
+    public void testStaleSnapshotFallsBackToJson() throws IOException {
+        CommandConfig bundled = ConfigCache.load(configFile);
+        Files.setLastModifiedTime(cacheFile, OLD_TIME);
+        // Snapshot of bundled config has another hash
+        Files.write(configFile, SMALL_CONFIG.getBytes(StandardCharsets.UTF_8));
+        CommandConfig small = ConfigCache.load(configFile);
+        assertSameAsJson(small);
+        assertEquals("x", small.getCommand("textbf").getTag());
+        assertFalse(bundled.findChangedNames(small).isEmpty());
+        // Snapshot is replaced
+        assertFalse(OLD_TIME.equals(Files.getLastModifiedTime(cacheFile)));
+        Files.setLastModifiedTime(cacheFile, OLD_TIME);
+        assertSameAsJson(ConfigCache.load(configFile));
+        assertEquals(OLD_TIME, Files.getLastModifiedTime(cacheFile));
+    }
+
+    @Test
+    public void testTruncatedSnapshotFallsBackToJson() throws IOException {
+        ConfigCache.load(configFile);
+        byte[] snapshot = Files.readAllBytes(cacheFile);
+        // Cut in header, in hash and in config data
+        for (int length : new int[] {0, 6, 20, snapshot.length / 2, snapshot.length - 1}) {
+            Files.write(cacheFile, Arrays.copyOf(snapshot, length));
+            Files.setLastModifiedTime(cacheFile, OLD_TIME);
+            assertSameAsJson(ConfigCache.load(configFile));
+            assertEquals(snapshot.length, Files.size(cacheFile), "Length " + length);
+        }
+    }
+
+    @Test
+    public void testCorruptSnapshotFallsBackToJson() throws IOException {
+        ConfigCache.load(configFile);
+        byte[] snapshot = Files.readAllBytes(cacheFile);
+        // Wrong magic number, format version, hash byte, data size, checksum and data bytes
+        for (int position : new int[] {0, 7, 9, 41, 45, 60, snapshot.length - 1}) {
+            byte[] corrupt = snapshot.clone();
+            corrupt[position] ^= 0x55;
+            Files.write(cacheFile, corrupt);
+            assertSameAsJson(ConfigCache.load(configFile));
+            assertTrue(Arrays.equals(snapshot, Files.readAllBytes(cacheFile)), "Position " + position);
+        }
+        // Garbage after valid header and hash, and extra data
+        byte[] corrupt = snapshot.clone();
+        Arrays.fill(corrupt, 41, corrupt.length, (byte) 0xFF);
+        Files.write(cacheFile, corrupt);
+        assertSameAsJson(ConfigCache.load(configFile));
+        Files.write(cacheFile, Arrays.copyOf(snapshot, snapshot.length + 1));
+        assertSameAsJson(ConfigCache.load(configFile));
+        assertTrue(Arrays.equals(snapshot, Files.readAllBytes(cacheFile)));
+    }
+
+    private void assertSameAsJson(CommandConfig config) throws IOException {
+        CommandConfig json = CommandConfig.read(new ByteArrayInputStream(Files.readAllBytes(configFile)));
+        assertEquals(0, config.findChangedNames(json).size(), config.findChangedNames(json).toString());
+    }
+}
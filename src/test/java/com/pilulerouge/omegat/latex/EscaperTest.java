@@ -0,0 +1,113 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class EscaperTest {
+
+    /**
+     * Unescape patterns with substitutions formerly applied in order.
+     */
+    private static final Map<Pattern, String> UNESCAPE_MAP = new LinkedHashMap<>();
+    static {
+        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\%"), "%");
+        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\[$]"), "\\$");
+        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\_"), "_");
+        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\#"), "#");
+        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)\\\\&"), "&");
+        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)~"), "\u00A0"); // Non-breaking space
+        UNESCAPE_MAP.put(Pattern.compile("(?<!\\\\)[\\\\]~[{][}]"), "~");
+    }
+
+    /**
+     * Escape patterns with substitutions formerly applied in order.
+     */
+    private static final Map<Pattern, String> ESCAPE_MAP = new LinkedHashMap<>();
+    static {
+        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)%"), "\\\\%");
+        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)[$]"), "\\\\\\$");
+        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)_"), "\\\\_");
+        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)#"), "\\\\#");
+        ESCAPE_MAP.put(Pattern.compile("(?<!\\\\)&"), "\\\\&");
+        ESCAPE_MAP.put(Pattern.compile("~"), "\\\\~\\{\\}");
+        ESCAPE_MAP.put(Pattern.compile("\u00A0"), "~");
+    }
+
+    private static final String ALPHABET = "\\%$_#&~{} a\u00A0";
+    private static final int CASES = 200000;
+    private static final int MAX_LENGTH = 12;
+
+    @Test
+    public void testSameAsReplacementChains() {
+        Escaper escaper = new Escaper();
+        Random random = new Random(20221);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < CASES; i++) {
+            sb.setLength(0);
+            int length = random.nextInt(MAX_LENGTH + 1);
+            for (int j = 0; j < length; j++) {
+                sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            String text = sb.toString();
+            assertEquals(replaceAll(text, UNESCAPE_MAP), escaper.unescape(text), "Unescape " + text);
+            assertEquals(replaceAll(text, ESCAPE_MAP), escaper.escape(text), "Escape " + text);
+        }
+    }
+
+    @Test
+    public void testExamples() {
+        Escaper escaper = new Escaper();
+        assertEquals("100% $5 a_b #1 & c", escaper.unescape("100\\% \\$5 a\\_b \\#1 \\& c"));
+        assertEquals("no\u00A0break ~ tilde", escaper.unescape("no~break \\~{} tilde"));
+        assertEquals("\\\\% kept", escaper.unescape("\\\\% kept"));
+        assertEquals("100\\% \\$5 a\\_b \\#1 \\& c", escaper.escape("100% $5 a_b #1 & c"));
+        assertEquals("no~break \\~{} tilde", escaper.escape("no\u00A0break ~ tilde"));
+        assertEquals("already \\% escaped", escaper.escape("already \\% escaped"));
+    }
+
+    @Test
+    public void testPlainTextIsReturnedAsIs() {
+        Escaper escaper = new Escaper();
+        String text = "Plain text {with} braces";
+        assertSame(text, escaper.unescape(text));
+        assertSame(text, escaper.escape(text));
+        // Backslash alone needs no escaping
+        text = "Plain text with \\command{argument}";
+        assertSame(text, escaper.escape(text));
+    }
+
+    private static String replaceAll(String text, Map<Pattern, String> replacements) {
+        for (Map.Entry<Pattern, String> e : replacements.entrySet()) {
+            text = e.getKey().matcher(text).replaceAll(e.getValue());
+        }
+        return text;
+    }
+}
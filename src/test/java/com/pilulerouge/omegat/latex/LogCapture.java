@@ -0,0 +1,108 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.omegat.util.Log;
+
+/**
+ * Collects messages logged through OmegaT log while open.
+ */
+final class LogCapture extends Handler implements AutoCloseable {
+
+    private final Logger root = Logger.getLogger("");
+    private final List<String> messages = new ArrayList<>();
+
+    LogCapture() {
+        // OmegaT log configures logging when loaded, the handler must be added after that
+        try {
+            Class.forName(Log.class.getName());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+        root.addHandler(this);
+    }
+
+    /**
+     * @param key message key
+     * @param parameters message parameters without plugin name
+     * @return number of messages logged with the key and parameters
+     */
+    synchronized int count(String key, Object... parameters) {
+        Object[] all = new Object[parameters.length + 1];
+        all[0] = SimpleLatexFilter.class.getSimpleName();
+        System.arraycopy(parameters, 0, all, 1, parameters.length);
+        String expected = new MessageFormat(Util.RB.getString(key)).format(all);
+        int count = 0;
+        for (String message : messages) {
+            if (message.equals(expected)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param key message key
+     * @return number of messages logged with the key and any parameters
+     */
+    synchronized int countAny(String key) {
+        // Message format arguments match any text
+        String[] parts = Util.RB.getString(key).split("\\{[0-9][^}]*}", -1);
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(parts[i].replace("''", "'")));
+        }
+        Pattern pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        int count = 0;
+        for (String message : messages) {
+            if (pattern.matcher(message).matches()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        messages.add(record.getMessage());
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        root.removeHandler(this);
+    }
+}
@@ -0,0 +1,147 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParsePipelineTest {
+
+    private static final int[] BATCH_SIZES = {1, 2, 7, ParsePipeline.UNITS_PER_BATCH};
+
+    @Test
+    public void testUnitsCoverDocument() throws Exception {
+        String document = StringFilter.readResource("/test.tex");
+        CommandCenter commandCenter = new CommandCenter(true);
+        TokenBuffer expected = tokenize(document, commandCenter);
+        parseAll(expected, new Parser(commandCenter));
+
+        for (int batchSize : BATCH_SIZES) {
+            TokenBuffer tokens = tokenize(document, commandCenter);
+            List<int[]> units = new ArrayList<>();
+            ParsePipeline pipeline = new ParsePipeline(tokens, new Parser(commandCenter), batchSize);
+            try {
+                while (pipeline.next()) {
+                    units.add(new int[] {pipeline.getSegmentStart(), pipeline.getPlainStart(), pipeline.getEnd()});
+                }
+                assertFalse(pipeline.next());
+            } finally {
+                pipeline.close();
+            }
+            assertFalse(pipeline.isParsing());
+            // Many more batches than the queue holds, so the parser waits for translation
+            if (batchSize == 1) {
+                assertTrue(units.size() > 16, "Too few units: " + units.size());
+            }
+
+            int next = 0;
+            for (int[] unit : units) {
+                assertEquals(next, unit[0], "Batch size " + batchSize);
+                assertTrue(unit[0] <= unit[1] && unit[1] < unit[2]);
+                for (int t = unit[0]; t < unit[2]; t++) {
+                    assertEquals(t < unit[1], tokens.isTranslatable(t), "Token " + t);
+                }
+                next = unit[2];
+            }
+            assertEquals(tokens.size(), next);
+            for (int t = 0; t < tokens.size(); t++) {
+                assertEquals(expected.getTagId(t), tokens.getTagId(t));
+                assertEquals(expected.getExternality(t), tokens.getExternality(t));
+                assertEquals(expected.getName(t), tokens.getName(t));
+            }
+        }
+    }
+
+    @Test
+    public void testFailureReachesTranslation() throws Exception {
+        String document = StringFilter.readResource("/test.tex");
+        int half = document.indexOf("\n", document.length() / 2) + 1;
+        document = document.substring(0, half) + "\\end{quote}\nText after error.\n" + document.substring(half);
+        CommandCenter commandCenter = new CommandCenter(true);
+
+        for (int batchSize : BATCH_SIZES) {
+            TokenBuffer tokens = tokenize(document, commandCenter);
+            ParsePipeline pipeline = new ParsePipeline(tokens, new Parser(commandCenter), batchSize);
+            int[] end = new int[1];
+            try {
+                assertThrows(SimpleLatexFilterException.class, () -> {
+                    while (pipeline.next()) {
+                        end[0] = pipeline.getEnd();
+                    }
+                });
+                // Pipeline stays finished after failure
+                assertFalse(pipeline.next());
+            } finally {
+                pipeline.close();
+            }
+            assertFalse(pipeline.isParsing());
+            // Units end before the failing token
+            assertTrue(end[0] > 0 && end[0] < tokens.size());
+            assertTrue(tokens.getStart(end[0] - 1) < half);
+        }
+    }
+
+    @Test
+    public void testCloseStopsWaitingParser() throws Exception {
+        String document = StringFilter.readResource("/test.tex");
+        CommandCenter commandCenter = new CommandCenter(true);
+        TokenBuffer tokens = tokenize(document, commandCenter);
+        ParsePipeline pipeline = new ParsePipeline(tokens, new Parser(commandCenter), 1);
+        assertTrue(pipeline.next());
+        // Parser is blocked on the full queue or done, either way it exits
+        pipeline.close();
+        assertFalse(pipeline.isParsing());
+    }
+
+    @Test
+    public void testFilterOutputWithSmallBatches() throws Exception {
+        String document = StringFilter.readResource("/test.tex");
+        UnaryOperator<String> translator = s -> s.isEmpty() ? s : "[" + s + "]";
+        String expected = new StringFilter(Collections.emptyMap(), translator).translate(document);
+        for (int batchSize : BATCH_SIZES) {
+            StringFilter filter = new StringFilter(Collections.singletonMap("pipeline", "true"), translator);
+            filter.pipelineBatchSize = batchSize;
+            assertEquals(expected, filter.translate(document), "Batch size " + batchSize);
+        }
+    }
+
+    private static TokenBuffer tokenize(String document, CommandCenter commandCenter) {
+        return Tokenizer.tokenizeDocument(document, TokenizerMode.LEXER, false, commandCenter.getConfigSymbols());
+    }
+
+    private static void parseAll(TokenBuffer tokens, DocumentParser parser) {
+        TokenBuffer.Cursor cursor = tokens.cursor();
+        while (cursor.hasNext()) {
+            cursor.next();
+            parser.processToken(cursor);
+        }
+    }
+}
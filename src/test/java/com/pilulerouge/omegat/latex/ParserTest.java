@@ -0,0 +1,188 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static com.pilulerouge.omegat.latex.Tokenizer.tokenizeDocument;
+import static com.pilulerouge.omegat.latex.Util.readBufferWithLinebreaks;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ParserTest {
+
+    private final static String[] TEST_STRINGS = new String[] {
+        "\\textbf[x]{a \\emph{b}} \\footnote{c \\url{http://d} \\ref{e}} {f} [g] & h",
+        "\\begin{figure}[h]\\includegraphics[width=1cm]{a.png}\\caption[s]{Long}\\end{figure}",
+        "\\begin{tabular}{|l|c|} a & b \\\\ \\hline \\unknown{c} & $d$ \\end{tabular}",
+        "\\section*[short]{Title \\textit{x}} {\\bfseries y} \\item[z] \\label{w}} ]",
+        "\\begin{quote}\\emph{a} \\footnote{b \\end{itemize} c}",
+    };
+
+    // Pieces of random documents: configured and unknown commands, arguments, options, groups and tables
+    private final static String[] FRAGMENTS = new String[] {
+        "Text ", "text. ", " ", "\n", "\n\n", "\\textbf", "\\emph", "\\textit", "\\footnote", "\\footnotemark",
+        "\\url", "\\href", "\\ref", "\\textls", "\\verb|v|", "\\caption", "\\item", "\\section", "\\section*",
+        "\\chapter", "\\addcontentsline{toc}", "\\multicolumn{2}", "\\label", "\\includegraphics", "\\hline",
+        "\\newcommand", "\\unknown", "\\bfseries", "{", "}", "{text}", "{}", "[", "]", "[opt]", "&", "\\\\",
+        "$x$", "\\(y\\)", "\\[z\\]", "% comment\n", "\\begin{verbatim}raw \\emph{x}\\end{verbatim}", "\\~{}", "~",
+    };
+
+    // Environment names with arguments after begin, ends are generated to match
+    private final static String[][] ENVIRONMENTS = new String[][] {
+        {"itemize", ""}, {"tabular", "{ll}"}, {"figure", "[h]"}, {"wrapfigure", "{r}{5cm}"}, {"quote", ""},
+    };
+
+    // Marks given by the parser before its levels were kept in array stacks, see parser_marks.txt
+    private static final String BASELINE_MARKS = "/parser_marks.txt";
+    private static final long SEED = 20221;
+    private static final int BASELINE_RANDOM_DOCUMENTS = 40; // First random documents of the seed
+    private static final int RANDOM_DOCUMENTS = 5000;
+    private static final int MAX_FRAGMENTS = 30;
+
+    @Test
+    public void testCompiledParserProducesSameMarks() throws Exception {
+        CommandCenter commandCenter = new CommandCenter(true);
+        assertSameMarks(commandCenter, readTestDocument());
+        for (String s : TEST_STRINGS) {
+            assertSameMarks(commandCenter, s);
+        }
+    }
+
+    @Test
+    public void testParsersProduceBaselineMarks() throws Exception {
+        CommandCenter commandCenter = new CommandCenter(true);
+        List<String> documents = new ArrayList<>();
+        documents.add(readTestDocument());
+        documents.addAll(Arrays.asList(TEST_STRINGS));
+        Random random = new Random(SEED);
+        for (int i = 0; i < BASELINE_RANDOM_DOCUMENTS; i++) {
+            documents.add(randomDocument(random));
+        }
+        List<List<String>> baseline = readBaselineMarks();
+        assertEquals(documents.size(), baseline.size());
+        for (int i = 0; i < documents.size(); i++) {
+            String document = documents.get(i);
+            assertEquals(baseline.get(i), describeMarks(new Parser(commandCenter), tokenizeDocument(document)),
+                    document);
+            assertEquals(baseline.get(i), describeMarks(new CompiledParser(commandCenter),
+                    tokenizeDocument(document)), document);
+        }
+    }
+
+    @Test
+    public void testCompiledParserProducesSameMarksOnRandomDocuments() throws Exception {
+        CommandCenter commandCenter = new CommandCenter(true);
+        Random random = new Random(SEED);
+        for (int i = 0; i < RANDOM_DOCUMENTS; i++) {
+            assertSameMarks(commandCenter, randomDocument(random));
+        }
+    }
+
+    private String readTestDocument() throws Exception {
+        File documentFile = new File(this.getClass().getResource("/test.tex").getFile());
+        try (BufferedReader reader = new BufferedReader(new FileReader(documentFile))) {
+            return readBufferWithLinebreaks(reader).toString();
+        }
+    }
+
+    /**
+     * @return marks of every document, documents are separated by empty lines
+     */
+    private List<List<String>> readBaselineMarks() throws Exception {
+        List<List<String>> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                this.getClass().getResourceAsStream(BASELINE_MARKS), StandardCharsets.UTF_8))) {
+            List<String> marks = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    result.add(marks);
+                    marks = new ArrayList<>();
+                } else {
+                    marks.add(line);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String randomDocument(Random random) {
+        StringBuilder sb = new StringBuilder();
+        Deque<String> environments = new ArrayDeque<>();
+        int count = random.nextInt(MAX_FRAGMENTS + 1);
+        for (int i = 0; i < count; i++) {
+            int k = random.nextInt(FRAGMENTS.length + ENVIRONMENTS.length + 1);
+            if (k < FRAGMENTS.length) {
+                sb.append(FRAGMENTS[k]);
+            } else if (k < FRAGMENTS.length + ENVIRONMENTS.length) {
+                String[] environment = ENVIRONMENTS[k - FRAGMENTS.length];
+                sb.append("\\begin{").append(environment[0]).append('}').append(environment[1]);
+                environments.push(environment[0]);
+            } else if (!environments.isEmpty()) {
+                sb.append("\\end{").append(environments.pop()).append('}');
+            }
+        }
+        while (!environments.isEmpty()) {
+            sb.append("\\end{").append(environments.pop()).append('}');
+        }
+        return sb.toString();
+    }
+
+    private static void assertSameMarks(CommandCenter commandCenter, String document) {
+        List<String> expected = describeMarks(new Parser(commandCenter), tokenizeDocument(document));
+        List<String> actual = describeMarks(new CompiledParser(commandCenter), tokenizeDocument(document));
+        assertEquals(expected, actual, document);
+    }
+
+    /**
+     * @return marks of tokens up to the one failing parsing
+     */
+    private static List<String> describeMarks(DocumentParser parser, TokenBuffer tokens) {
+        List<String> result = new ArrayList<>();
+        TokenBuffer.Cursor cursor = tokens.cursor();
+        while (cursor.hasNext()) {
+            int i = cursor.next();
+            try {
+                parser.processToken(cursor);
+            } catch (SimpleLatexFilterException e) {
+                result.add("ERROR " + tokens.getStart(i));
+                break;
+            }
+            result.add(tokens.getType(i) + " " + tokens.getStart(i) + " " + tokens.getName(i) + " " +
+                    tokens.isTranslatable(i) + " " + tokens.getExternality(i) + " " + tokens.getTagId(i) + " " +
+                    tokens.doEscape(i) + " " + tokens.getEnvironments(i).toList());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,212 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SectionParserTest {
+
+    // Small enough to split short test documents into many sections
+    private static final int MIN_SECTION_TOKENS = 8;
+    private static final int SECTIONS = 40;
+
+    // Sections entered on root level, their speculative results are accepted
+    private static final String ROOT_SECTION = String.join("\n",
+            "\\section{Section title}",
+            "Text with \\emph{emphasis}, a footnote\\footnote{Footnote \\textbf{text}} and \\ref{label}.",
+            "\\begin{itemize}",
+            "\\item Item text",
+            "\\end{itemize}",
+            "");
+
+    // Section commands inside a group, an argument and a copied argument, their sections are parsed again
+    private static final String NESTED_SECTION = String.join("\n",
+            "{\\bfseries Group text",
+            "\\section{Inside group} continues} here.",
+            "Note\\footnote{Footnote text",
+            "\\section{Inside footnote} with \\emph{more}}.",
+            "\\label{copied \\section{Inside label} text}",
+            "");
+
+    // Section command in an open environment, it's known from pre-scan
+    private static final String ENVIRONMENT_SECTION = String.join("\n",
+            "\\begin{quote}",
+            "\\section{Inside environment} Quoted \\emph{text}.",
+            "\\end{quote}",
+            "");
+
+    @Test
+    public void testAcceptedSections() throws Exception {
+        String document = repeat(ROOT_SECTION + ENVIRONMENT_SECTION, SECTIONS);
+        // Every token is parsed once
+        assertEquals(0, assertSequentialMarks(document));
+    }
+
+    @Test
+    public void testRejectedSections() throws Exception {
+        String document = ROOT_SECTION + repeat(NESTED_SECTION, SECTIONS);
+        // Sections after the first one continue the real state
+        assertTrue(assertSequentialMarks(document) > 0, "No section was rejected");
+    }
+
+    @Test
+    public void testMixedSections() throws Exception {
+        String document = repeat(ROOT_SECTION + NESTED_SECTION + ENVIRONMENT_SECTION, SECTIONS);
+        // Which sections are rejected depends on section size chosen for parallelism
+        assertSequentialMarks(document);
+    }
+
+    @Test
+    public void testFailedSectionRestoresNames() throws Exception {
+        String document = repeat(ROOT_SECTION, SECTIONS);
+        CommandCenter commandCenter = new CommandCenter(true);
+        TokenBuffer tokens = tokenize(document, commandCenter);
+        int[] nameIds = tokens.copyNameIds();
+        int[] processed = new int[1];
+        // Sections after the first one fail on their first token, the second one is accepted and fails parsing
+        Supplier<DocumentParser> factory = () -> new CountingParser(new Parser(commandCenter), processed, 0);
+        assertThrows(SimpleLatexFilterException.class, () -> SectionParser.parse(tokens,
+                new Parser(commandCenter), factory, MIN_SECTION_TOKENS));
+        assertArrayEquals(nameIds, tokens.copyNameIds());
+
+        // Restored tokens parse sequentially as if nothing happened
+        assertEquals(describe(tokenize(document, commandCenter), new Parser(commandCenter)),
+                describe(tokens, new Parser(commandCenter)));
+    }
+
+    @Test
+    public void testFailedDocumentRestoresNames() throws Exception {
+        // Environments don't match, so document is parsed sequentially and fails there
+        String document = repeat(ROOT_SECTION, SECTIONS) + "\\end{quote}\n" + repeat(ROOT_SECTION, SECTIONS);
+        CommandCenter commandCenter = new CommandCenter(true);
+        TokenBuffer tokens = tokenize(document, commandCenter);
+        int[] nameIds = tokens.copyNameIds();
+        assertThrows(SimpleLatexFilterException.class, () -> SectionParser.parse(tokens,
+                new Parser(commandCenter), () -> new Parser(commandCenter), MIN_SECTION_TOKENS));
+        assertArrayEquals(nameIds, tokens.copyNameIds());
+    }
+
+    /**
+     * Check that section parsing marks tokens as sequential parsing does.
+     * @return number of tokens parsed again in rejected sections
+     */
+    private static int assertSequentialMarks(String document) throws Exception {
+        CommandCenter commandCenter = new CommandCenter(true);
+        List<String> expected = describe(tokenize(document, commandCenter), new Parser(commandCenter));
+
+        TokenBuffer tokens = tokenize(document, commandCenter);
+        int[] processed = new int[1];
+        int[] sections = {1};
+        SectionParser.parse(tokens, new CountingParser(new Parser(commandCenter), processed, -1), () -> {
+            sections[0]++;
+            return new CountingParser(new Parser(commandCenter), processed, -1);
+        }, MIN_SECTION_TOKENS);
+        assertTrue(sections[0] > 2, "Too few sections: " + sections[0]);
+        assertEquals(expected, describe(tokens, null));
+        return processed[0] - tokens.size();
+    }
+
+    private static TokenBuffer tokenize(String document, CommandCenter commandCenter) {
+        return Tokenizer.tokenizeDocument(document, TokenizerMode.LEXER, false, commandCenter.getConfigSymbols());
+    }
+
+    /**
+     * @param parser parser to mark tokens with or null if they are marked already
+     */
+    private static List<String> describe(TokenBuffer tokens, DocumentParser parser) {
+        List<String> result = new ArrayList<>();
+        TokenBuffer.Cursor cursor = tokens.cursor();
+        while (cursor.hasNext()) {
+            int i = cursor.next();
+            if (parser != null) {
+                parser.processToken(cursor);
+            }
+            result.add(tokens.getType(i) + " " + tokens.getStart(i) + " " + tokens.getEnd(i) + " " +
+                    tokens.getName(i) + " " + tokens.isTranslatable(i) + " " + tokens.getExternality(i) + " " +
+                    tokens.getTagId(i) + " " + tokens.doEscape(i) + " " + tokens.getEnvironments(i).toList());
+        }
+        return result;
+    }
+
+    private static String repeat(String s, int count) {
+        return String.join("", Collections.nCopies(count, s));
+    }
+
+    /**
+     * Parser counting processed tokens and optionally failing after a number of them.
+     */
+    private static final class CountingParser implements DocumentParser {
+
+        private final DocumentParser parser;
+        private final int[] counter; // Shared by parsers of a document
+        private final int failAfter;
+        private int processed;
+
+        private CountingParser(DocumentParser parser, int[] counter, int failAfter) {
+            this.parser = parser;
+            this.counter = counter;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void processToken(TokenBuffer.Cursor token) {
+            if (processed == failAfter) {
+                throw new SimpleLatexFilterException("Test failure");
+            }
+            processed++;
+            synchronized (counter) {
+                counter[0]++;
+            }
+            parser.processToken(token);
+        }
+
+        @Override
+        public void reset() {
+            parser.reset();
+        }
+
+        @Override
+        public void reset(EnvironmentStack environments) {
+            parser.reset(environments);
+        }
+
+        @Override
+        public boolean onRootLevel() {
+            return parser.onRootLevel();
+        }
+
+        @Override
+        public int getLastTagId() {
+            return parser.getLastTagId();
+        }
+    }
+}
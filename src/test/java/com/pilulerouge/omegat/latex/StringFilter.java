@@ -0,0 +1,93 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Filter translating strings with a given function, for tests of filter internals.
+ */
+class StringFilter extends SimpleLatexFilter {
+
+    final List<String> entries = new ArrayList<>();
+    private final UnaryOperator<String> translator;
+
+    StringFilter(Map<String, String> options, UnaryOperator<String> translator) throws IOException {
+        super(true);
+        processOptions = options;
+        this.translator = translator;
+    }
+
+    StringFilter() throws IOException {
+        this(Collections.emptyMap(), UnaryOperator.identity());
+    }
+
+    @Override
+    protected String processEntry(String entry, String comment) {
+        entries.add(entry);
+        return translator.apply(entry);
+    }
+
+    /**
+     * @param document document text
+     * @return translated document
+     * @throws IOException on filter error
+     */
+    String translate(String document) throws IOException {
+        StringWriter out = new StringWriter();
+        try (BufferedReader reader = new BufferedReader(new StringReader(document));
+             BufferedWriter writer = new BufferedWriter(out)) {
+            processFile(reader, writer, null);
+        }
+        return out.toString();
+    }
+
+    /**
+     * @param name resource name
+     * @return resource text
+     * @throws IOException on read error
+     */
+    static String readResource(String name) throws IOException {
+        try (InputStream in = StringFilter.class.getResourceAsStream(name);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        }
+    }
+}
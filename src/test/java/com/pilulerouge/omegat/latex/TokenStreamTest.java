@@ -0,0 +1,128 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenStreamTest {
+
+    // Groups, arguments and verbatim content spanning many lines, so they span chunks of a few characters
+    private static final String SPANNING = String.join("\n",
+            "Text before \\emph{a group",
+            "spanning several lines",
+            "of the document} and after.",
+            "A footnote\\footnote{with text",
+            "on two lines and \\textbf{nested",
+            "bold} content}.",
+            "\\begin{verbatim}",
+            "Verbatim content which is longer than a chunk \\emph{not a command}",
+            "and goes on for another line",
+            "\\end{verbatim}",
+            "% A comment line",
+            "Inline $x + y$ and \\(z\\) math.",
+            "",
+            "\\begin{tabular}{ll}",
+            "Cell & cell \\\\",
+            "\\end{tabular}",
+            "");
+
+    private static final int[] CHUNK_SIZES = {8, 64, 1000};
+
+    @Test
+    public void testTokensAndMarksSpanningChunks() throws Exception {
+        String document = StringFilter.readResource("/test.tex") + SPANNING + SPANNING;
+        CommandCenter commandCenter = new CommandCenter(true);
+        TokenBuffer whole = Tokenizer.tokenizeDocument(document, TokenizerMode.LEXER, false,
+                commandCenter.getConfigSymbols());
+        List<String> expected = describe(whole, whole.cursor(), new Parser(commandCenter));
+
+        for (int chunkSize : CHUNK_SIZES) {
+            TokenStream stream = new TokenStream(new StringReader(document), TokenizerMode.LEXER,
+                    commandCenter.getConfigSymbols(), chunkSize);
+            TokenBuffer tokens = stream.getTokens();
+            DocumentParser parser = new Parser(commandCenter);
+            List<String> actual = new ArrayList<>();
+            int chunks = 0;
+            while (stream.advance()) {
+                actual.addAll(describe(tokens, tokens.cursor(), parser));
+                stream.release();
+                chunks++;
+            }
+            assertTrue(chunks > document.length() / Math.max(chunkSize, 500), "Too few chunks: " + chunks);
+            assertEquals(expected, actual, "Chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    public void testFilterOutputWithSmallChunks() throws Exception {
+        String document = StringFilter.readResource("/test.tex") + SPANNING;
+        UnaryOperator<String> translator = s -> s.isEmpty() ? s : "[" + s + "]";
+        String expected = new StringFilter(Collections.emptyMap(), translator).translate(document);
+        for (int chunkSize : CHUNK_SIZES) {
+            StringFilter filter = new StringFilter(Collections.singletonMap("input", "stream"), translator);
+            filter.streamChunkSize = chunkSize;
+            assertEquals(expected, filter.translate(document), "Chunk size " + chunkSize);
+        }
+        assertEquals(document, new StringFilter().translate(document));
+    }
+
+    @Test
+    public void testDiscardedTextIsNotReadable() throws IOException {
+        TextWindow text = new TextWindow(4);
+        StringReader reader = new StringReader("abcdefgh");
+        while (text.fill(reader, 4)) {
+            // Read everything
+        }
+        assertEquals("abcdefgh", text.toString());
+        text.discard(3);
+        assertEquals(8, text.length());
+        assertEquals('d', text.charAt(3));
+        assertEquals("defgh", text.subSequence(3, 8));
+        assertThrows(IndexOutOfBoundsException.class, () -> text.charAt(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> text.charAt(8));
+        assertThrows(IndexOutOfBoundsException.class, () -> text.subSequence(2, 5));
+        assertThrows(IllegalStateException.class, text::toString);
+    }
+
+    private static List<String> describe(TokenBuffer tokens, TokenBuffer.Cursor cursor, DocumentParser parser) {
+        List<String> result = new ArrayList<>();
+        while (cursor.hasNext()) {
+            int i = cursor.next();
+            parser.processToken(cursor);
+            result.add(tokens.getType(i) + " " + tokens.getStart(i) + " " + tokens.getEnd(i) + " " +
+                    tokens.getName(i) + " " + tokens.isTranslatable(i) + " " + tokens.getExternality(i) + " " +
+                    tokens.getTagId(i) + " " + tokens.doEscape(i) + " " + tokens.getEnvironments(i).toList());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TokenizerStepLimitTest {
+
+    // Every opener is searched for its closer up to the line end, so the work is quadratic in line length
+    private static final String STALLING_LINE = repeat("\\[a", 10000) + "\n";
+    private static final String MATH_LINE = "Text \\[x\\] text\n";
+
+    @Test
+    public void testStalledLinesShareDocumentBudget() {
+        int lines = 20;
+        String document = repeat(STALLING_LINE, lines) + MATH_LINE;
+        try (LogCapture log = new LogCapture()) {
+            TokenBuffer[] tokens = new TokenBuffer[1];
+            assertTimeoutPreemptively(Duration.ofSeconds(60), () -> tokens[0] = tokenize(document));
+            int stalls = log.countAny("LOG_TOKENIZER_STEP_LIMIT");
+            assertTrue(stalls > 0 && stalls < lines, "Stalls: " + stalls);
+            assertEquals(1, log.countAny("LOG_TOKENIZER_DOCUMENT_LIMIT"));
+            // Text after spent budget is left as text
+            assertEquals(0, countTokens(tokens[0], TokenType.DISPLAY_MATH));
+        }
+    }
+
+    @Test
+    public void testSearchResumesAfterStalledLine() {
+        String document = STALLING_LINE + MATH_LINE;
+        try (LogCapture log = new LogCapture()) {
+            TokenBuffer tokens = tokenize(document);
+            assertEquals(1, log.countAny("LOG_TOKENIZER_STEP_LIMIT"));
+            assertEquals(0, log.countAny("LOG_TOKENIZER_DOCUMENT_LIMIT"));
+            int mathStart = document.indexOf("\\[x");
+            assertEquals(1, countTokens(tokens, TokenType.DISPLAY_MATH));
+            for (int i = 0; i < tokens.size(); i++) {
+                if (tokens.getType(i) == TokenType.DISPLAY_MATH) {
+                    assertEquals(mathStart, tokens.getStart(i));
+                }
+            }
+        }
+    }
+
+    private static TokenBuffer tokenize(String document) {
+        return Tokenizer.tokenizeDocument(document, TokenizerMode.REGEX, false, CommandCenter.getSymbols());
+    }
+
+    private static int countTokens(TokenBuffer tokens, TokenType type) {
+        int count = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (tokens.getType(i) == type) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
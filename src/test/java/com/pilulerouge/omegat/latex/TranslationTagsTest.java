@@ -0,0 +1,114 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TranslationTagsTest {
+
+    private static final String FIRST = "Example of \\textbf{bold} and \\emph{emphasis}.";
+    private static final String SECOND = "Second \\textbf{bold} text.";
+    private static final String DOCUMENT = FIRST + "\n\n" + SECOND + "\n";
+    private static final int NOTES = 12;
+
+    @Test
+    public void testTagsRestored() throws Exception {
+        StringFilter filter = new StringFilter();
+        try (LogCapture log = new LogCapture()) {
+            assertEquals(DOCUMENT, filter.translate(DOCUMENT));
+            assertEquals(0, log.countAny("LOG_TAG_MISSING"));
+            assertEquals(0, log.countAny("LOG_TAG_DUPLICATED"));
+        }
+        assertEquals("Example of <b1>bold</b1> and <e1>emphasis</e1>.", filter.entries.get(0));
+        assertEquals("Second <b1>bold</b1> text.", filter.entries.get(1));
+    }
+
+    @Test
+    public void testMissingTag() throws Exception {
+        StringFilter filter = new StringFilter(Collections.emptyMap(),
+                s -> s.replace("<e1>", "").replace("</e1>", ""));
+        try (LogCapture log = new LogCapture()) {
+            // Contents of missing tags are dropped
+            assertEquals("Example of \\textbf{bold} and emphasis.\n\n" + SECOND + "\n", filter.translate(DOCUMENT));
+            assertEquals(1, log.count("LOG_TAG_MISSING", "<e1>", 0));
+            assertEquals(1, log.count("LOG_TAG_MISSING", "</e1>", 0));
+            assertEquals(2, log.countAny("LOG_TAG_MISSING"));
+            assertEquals(0, log.countAny("LOG_TAG_DUPLICATED"));
+        }
+    }
+
+    @Test
+    public void testDuplicatedTag() throws Exception {
+        StringFilter filter = new StringFilter(Collections.emptyMap(),
+                s -> s.replace("<b1>bold</b1> text", "<b1>bold</b1> <b1>bold</b1> text"));
+        try (LogCapture log = new LogCapture()) {
+            // Contents of repeated tags are written out again
+            assertEquals(FIRST + "\n\nSecond \\textbf{bold} \\textbf{bold} text.\n", filter.translate(DOCUMENT));
+            int position = DOCUMENT.indexOf(SECOND);
+            assertEquals(1, log.count("LOG_TAG_DUPLICATED", "<b1>", position));
+            assertEquals(1, log.count("LOG_TAG_DUPLICATED", "</b1>", position));
+            assertEquals(2, log.countAny("LOG_TAG_DUPLICATED"));
+            assertEquals(0, log.countAny("LOG_TAG_MISSING"));
+        }
+    }
+
+    @Test
+    public void testUnknownTagIsKeptAsText() throws Exception {
+        StringFilter filter = new StringFilter(Collections.emptyMap(), s -> s.replace("<e1>", "<x1><e1>"));
+        try (LogCapture log = new LogCapture()) {
+            assertEquals("Example of \\textbf{bold} and <x1>\\emph{emphasis}.\n\n" + SECOND + "\n",
+                    filter.translate(DOCUMENT));
+            assertEquals(0, log.countAny("LOG_TAG_MISSING"));
+            assertEquals(0, log.countAny("LOG_TAG_DUPLICATED"));
+        }
+    }
+
+    @Test
+    public void testExternalPartsInSourceOrder() throws Exception {
+        StringBuilder document = new StringBuilder("Notes");
+        StringBuilder segment = new StringBuilder("Notes");
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= NOTES; i++) {
+            document.append("\\footnote{Note ").append(i).append('}');
+            segment.append("<f").append(i).append("/>");
+            expected.add("Note " + i);
+        }
+        expected.add(0, segment.toString());
+        StringFilter filter = new StringFilter();
+        assertEquals(document.toString(), filter.translate(document.toString()));
+        assertEquals(expected, filter.entries);
+    }
+
+    @Test
+    public void testBlankExternalPart() throws Exception {
+        // Padding is the whole text of external part
+        String document = "See \\href{\t}{link}.\n";
+        StringFilter filter = new StringFilter();
+        assertEquals(document, filter.translate(document));
+    }
+}
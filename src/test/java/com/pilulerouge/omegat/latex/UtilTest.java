@@ -0,0 +1,140 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package com.pilulerouge.omegat.latex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UtilTest {
+
+    @Test
+    public void testMappedAsciiFile() throws IOException {
+        assertEquals("Text\r\nline\n", readMapped("\uFEFFText\r\nline\n", StandardCharsets.UTF_8));
+        assertEquals("Text", readMapped("Text", StandardCharsets.UTF_8));
+        assertEquals("", readMapped("\uFEFF", StandardCharsets.UTF_8));
+        assertEquals("", readMapped("", StandardCharsets.UTF_8));
+        // Non-ASCII UTF-8 text can't be read byte by byte
+        assertNull(readMapped("Text \u00E9", StandardCharsets.UTF_8));
+        assertNull(readMapped("\uFEFF\u2623", StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testMappedSingleByteFile() throws IOException {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        for (String encoding : new String[] {"ISO-8859-1", "windows-1252", "KOI8-R"}) {
+            // Undefined bytes are replaced as by a reader
+            String expected = new String(bytes, encoding);
+            CharSequence text = readMapped(bytes, encoding);
+            assertTrue(text instanceof MappedText);
+            assertEquals(expected, text.toString(), encoding);
+            assertEquals(expected.substring(10, 200), text.subSequence(10, 200).toString());
+            assertEquals(expected.charAt(150), text.subSequence(10, 200).charAt(140));
+            char[] chars = new char[20];
+            ((MappedText) text).getChars(100, 120, chars, 0);
+            assertEquals(expected.substring(100, 120), new String(chars));
+            assertThrows(IndexOutOfBoundsException.class, () -> text.charAt(256));
+            assertThrows(IndexOutOfBoundsException.class, () -> text.subSequence(10, 257));
+        }
+        // Multibyte encodings are not mapped
+        assertNull(readMapped(bytes, "UTF-16LE"));
+    }
+
+    @Test
+    public void testBufferKeepsLineBreaks() throws IOException {
+        String[] documents = {
+            "CR only\rline \\emph{x}\r\rend\r",
+            "CRLF\r\nline \\emph{x}\r\n\r\nend\r\n",
+            "Mixed\r\nline\rline\nend",
+            "No line break",
+            ""
+        };
+        for (String document : documents) {
+            assertEquals(document, read(document, -1));
+            assertEquals(document, read(document, document.length()));
+            // Bytes of UTF-8 text may outnumber its characters
+            assertEquals(document, read(document, document.length() * 3L));
+            assertEquals(document, Util.readBufferWithLinebreaks(
+                    new BufferedReader(new StringReader(document))).toString());
+            // Filter writes read text out as is
+            assertEquals(document, new StringFilter().translate(document));
+        }
+    }
+
+    @Test
+    public void testBufferSpanningBlocks() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 200000) {
+            sb.append("Line ").append(sb.length()).append(sb.length() % 3 == 0 ? "\r" : "\r\n");
+        }
+        String document = sb.toString();
+        assertEquals(document, read(document, -1));
+        assertEquals(document, read(document, document.length()));
+    }
+
+    @Test
+    public void testBufferIsNotCopied() throws IOException {
+        String document = "Text\r\n";
+        CharSequence text = Util.readBufferWithLinebreaks(new StringReader(document), document.length());
+        assertTrue(text instanceof CharBuffer);
+        // Exact size hint leaves a single spare character
+        assertEquals(document.length() + 1, ((CharBuffer) text).array().length);
+        // Mostly unused buffer is kept
+        text = Util.readBufferWithLinebreaks(new StringReader(document), document.length() * 4L);
+        assertEquals(document.length() * 4 + 1, ((CharBuffer) text).array().length);
+        assertEquals(document, text.toString());
+    }
+
+    private static String read(String document, long sizeHint) throws IOException {
+        return Util.readBufferWithLinebreaks(new StringReader(document), sizeHint).toString();
+    }
+
+    private static String readMapped(String content, Charset charset) throws IOException {
+        CharSequence text = readMapped(content.getBytes(charset), charset.name());
+        return text == null ? null : text.toString();
+    }
+
+    private static CharSequence readMapped(byte[] content, String encoding) throws IOException {
+        File file = File.createTempFile("mapped", ".tex");
+        try {
+            Files.write(file.toPath(), content);
+            return Util.readMappedFile(file, encoding);
+        } finally {
+            file.delete();
+        }
+    }
+}
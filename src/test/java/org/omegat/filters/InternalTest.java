@@ -2,7 +2,7 @@ package org.omegat.filters;
 
 import com.pilulerouge.omegat.latex.CommandCenter;
 import com.pilulerouge.omegat.latex.Parser;
-import com.pilulerouge.omegat.latex.Token;
+import com.pilulerouge.omegat.latex.TokenBuffer;
 import org.junit.jupiter.api.Test;
 
 import static com.pilulerouge.omegat.latex.Tokenizer.tokenizeDocument;
@@ -13,7 +13,6 @@ import java.io.*;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
 
 public class InternalTest {
 
@@ -31,20 +30,19 @@ public class InternalTest {
     public void TokenizerAndParserReport() throws IOException {
         File documentFile = new File(this.getClass().getResource(TEST_DOCUMENT_PATH).getFile());
         BufferedReader reader = new BufferedReader(new FileReader(documentFile));
-        String documentString = readBufferWithLinebreaks(reader);
+        CharSequence document = readBufferWithLinebreaks(reader);
 
-        ListIterator<Token> tokenIterator = tokenizeDocument(documentString);
+        TokenBuffer tokens = tokenizeDocument(document);
+        TokenBuffer.Cursor cursor = tokens.cursor();
 
         CommandCenter commandCenter = new CommandCenter(true);
         Parser parser = new Parser(commandCenter);
 
-        Token token;
-        List<Token> tokenList = new ArrayList<>();
+        List<Integer> tokenList = new ArrayList<>();
 
-        while(tokenIterator.hasNext()) {
-            token = tokenIterator.next();
-            parser.processToken(token);
-            tokenList.add(token);
+        while(cursor.hasNext()) {
+            tokenList.add(cursor.next());
+            parser.processToken(cursor);
         }
 
         // Build report HTML
@@ -70,13 +68,13 @@ public class InternalTest {
                         each(
                             tokenList,
                             t -> tr(
-                                td(nvl(t.getName(), "")),
-                                td(t.getType().name()),
-                                td(documentString.substring(t.getStart(), t.getEnd())),
-                                td(String.valueOf(t.getParserMark().isTranslatable())),
-                                td(String.valueOf(t.getParserMark().getExternality())),
-                                td(String.valueOf(t.getParserMark().getTagId())),
-                                td(String.valueOf(t.getParserMark().doEscape()))
+                                td(nvl(tokens.getName(t), "")),
+                                td(tokens.getType(t).name()),
+                                td(document.subSequence(tokens.getStart(t), tokens.getEnd(t)).toString()),
+                                td(String.valueOf(tokens.isTranslatable(t))),
+                                td(String.valueOf(tokens.getExternality(t))),
+                                td(String.valueOf(tokens.getTagId(t))),
+                                td(String.valueOf(tokens.doEscape(t)))
                             )
                         )
                     )
@@ -24,8 +24,11 @@ package org.omegat.filters;
 import java.io.File;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import com.pilulerouge.omegat.latex.SimpleLatexFilter;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -96,6 +99,44 @@ public class SimpleLatexFilterTest extends TestFilterBase {
         compareBinary(new File("src/test/resources" + testDocument), outFile);
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = {"input=stream", "parallelParser=true", "pipeline=true"})
+    public void testProcessingOptions(String option) throws Exception {
+        String[] keyValue = option.split("=");
+        Map<String, String> options = Collections.singletonMap(keyValue[0], keyValue[1]);
+        List<String> entries = parse(new SimpleLatexFilter(true), testDocument, options);
+        for (int i = 0; i < TEST_STRINGS.length; i++) {
+            assertEquals(TEST_STRINGS[i], entries.get(i));
+        }
+        translate(new SimpleLatexFilter(true), testDocument, options);
+        compareBinary(new File("src/test/resources" + testDocument), outFile);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"UTF-8", "ISO-8859-1"})
+    public void testMappedInput(String encoding) throws Exception {
+        // Non-ASCII UTF-8 text is read into a buffer, single-byte text straight from the mapping
+        Map<String, String> options = Collections.singletonMap("input", "mapped");
+        context.setInEncoding(encoding);
+        context.setOutEncoding(encoding);
+        translate(new SimpleLatexFilter(true), testDocument, options);
+        compareBinary(new File("src/test/resources" + testDocument), outFile);
+    }
+
+    @Test
+    public void testEnvironmentComments() throws Exception {
+        // Comment lists environments open at segment start, not at segment end
+        List<ParsedEntry> entries = parse3(new SimpleLatexFilter(true), "src/test/resources" + testDocument,
+                Collections.emptyMap());
+        for (ParsedEntry entry : entries) {
+            if (entry.source.equals("Testing environments")) {
+                assertTrue(entry.props[1].endsWith(": bar > foo"));
+                return;
+            }
+        }
+        fail("Segment not found");
+    }
+
     @Test
     public void testTranslateNew() throws Exception {
         translateText(new SimpleLatexFilter(), testDocument);
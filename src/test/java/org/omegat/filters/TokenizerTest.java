@@ -0,0 +1,127 @@
+/**************************************************************************
+ Simple LaTeX filter for OmegaT
+
+ Copyright (C) 2022 Lev Abashkin
+
+ This file is NOT a part of OmegaT.
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ **************************************************************************/
+
+package org.omegat.filters;
+
+import com.pilulerouge.omegat.latex.TokenBuffer;
+import com.pilulerouge.omegat.latex.TokenizerMode;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.pilulerouge.omegat.latex.Tokenizer.tokenizeDocument;
+import static com.pilulerouge.omegat.latex.Util.readBufferWithLinebreaks;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TokenizerTest {
+
+    private final static String[] TEST_STRINGS = new String[] {
+        "Price is $5 and \\$6, math $a\\~{}b$ and \\(x $y$ z\\) here.",
+        "\\begin{equation*}E=mc^2\\end{equation*} \\[ \\frac{1}{2} \\] \\begin{math}x\\end{math}",
+        "\\verb|\\emph{x}| \\verb+a%b+ \\\\verb|not a verb|",
+        "\\url{http://a.b/%20?x=1&y=2} % comment $x$\nnext line \\href{https://c.d}{link}",
+        "\\begin{verbatim}% \\emph{raw}\\end{verbatim}\n\n  \n\\begin*{itemize}\\item\\end{itemize}",
+        "Unclosed $math\nand \\(unclosed\r\nlines\\\\[1em] & \\& \\{ \\} ~ \\~{}",
+        "\\( a \\( b \\) \\( c \\verb|x \\verb+y \\verb+z+ \\url{p \\url{q} \\[ \\[ r\n\\] \\verb|s|",
+    };
+
+    // Pieces of random documents: unclosed delimiters, nested \verb, URLs in comments and every line break
+    private final static String[] FRAGMENTS = new String[] {
+        "text ", "a", " ", "\t", "\n", "\r\n", "\r", "\n\n", "\r\n  \r\n",
+        "$", "\\$", "\\(", "\\)", "\\[", "\\]", "\\begin{math}", "\\end{math}",
+        "\\begin{displaymath}", "\\end{displaymath}", "\\begin{equation}", "\\end{equation*}",
+        "\\begin{verbatim}", "\\end{verbatim}", "\\begin{verbatim*}", "\\begin*{itemize}", "\\end{itemize}",
+        "\\emph", "\\textbf*", "\\x", "{", "}", "[", "]", "&", "\\&", "\\\\", "\\", "~", "\\~{}",
+        "%", "\\%", "% comment \\url{x}", "%\\verb|", "\\url{", "\\href{", "http://a.b/%20?x=1&y=2",
+        "\\verb", "\\verb|", "|", "+", "\\verb+a \\verb|b| c+", "\\verb|x \\verb+y+", "\\verb\n",
+        "\\verb%", "\\\\verb|",
+    };
+
+    private static final int RANDOM_DOCUMENTS = 20000;
+    private static final int MAX_FRAGMENTS = 24;
+
+    @Test
+    public void testEnginesProduceSameTokens() throws Exception {
+        assertSameTokens(readTestDocument());
+        for (String s : TEST_STRINGS) {
+            assertSameTokens(s);
+        }
+    }
+
+    @Test
+    public void testEnginesProduceSameTokensOnRandomDocuments() {
+        Random random = new Random(20221);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < RANDOM_DOCUMENTS; i++) {
+            sb.setLength(0);
+            int count = random.nextInt(MAX_FRAGMENTS + 1);
+            for (int j = 0; j < count; j++) {
+                sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertSameTokens(sb.toString());
+        }
+    }
+
+    @Test
+    public void testParallelTokenizerProducesSameTokens() throws Exception {
+        String document = readTestDocument();
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1 << 20) {
+            sb.append(document);
+            for (String s : TEST_STRINGS) {
+                sb.append(s).append('\n');
+            }
+        }
+        String largeDocument = sb.toString();
+        for (TokenizerMode mode : TokenizerMode.values()) {
+            List<String> expected = describeTokens(tokenizeDocument(largeDocument, mode));
+            List<String> actual = describeTokens(tokenizeDocument(largeDocument, mode, true));
+            assertEquals(expected, actual);
+        }
+    }
+
+    private String readTestDocument() throws Exception {
+        File documentFile = new File(this.getClass().getResource("/test.tex").getFile());
+        try (BufferedReader reader = new BufferedReader(new FileReader(documentFile))) {
+            return readBufferWithLinebreaks(reader).toString();
+        }
+    }
+
+    private static void assertSameTokens(String document) {
+        List<String> expected = describeTokens(tokenizeDocument(document, TokenizerMode.REGEX));
+        List<String> actual = describeTokens(tokenizeDocument(document, TokenizerMode.LEXER));
+        assertEquals(expected, actual, document);
+    }
+
+    private static List<String> describeTokens(TokenBuffer tokens) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            result.add(tokens.getType(i) + " " + tokens.getStart(i) + " " + tokens.getEnd(i) + " "
+                    + tokens.getName(i));
+        }
+        return result;
+    }
+}